@@ -1,8 +1,12 @@
 package dev.mccue.resolve;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 public interface Cache {
@@ -14,14 +18,70 @@ public interface Cache {
         return new StandardCache(path);
     }
 
+    /**
+     * Stores each distinct file once, no matter how many keys it is fetched under.
+     *
+     * @param path The directory to keep files in.
+     * @return A cache which deduplicates files by their contents.
+     * @see ContentAddressedCache
+     */
+    static ContentAddressedCache contentAddressed(Path path) {
+        return new ContentAddressedCache(path);
+    }
+
+    /**
+     * Keeps the contents of small, recently read files in memory in front of another cache.
+     *
+     * @param disk The cache to keep files in.
+     * @param maximumBytes The most file contents to hold in memory at once.
+     * @return A cache which reads through to the given one.
+     * @see TieredCache
+     */
+    static TieredCache tiered(Cache disk, long maximumBytes) {
+        return new TieredCache(disk, maximumBytes, TieredCache.DEFAULT_MAXIMUM_ENTRY_BYTES, TieredCache.Metrics.NONE);
+    }
+
+    /**
+     * Looks for files in directories which can't be written to before going to another cache.
+     *
+     * @param readOnlyRoots Directories laid out like a {@link StandardCache}, looked in in order.
+     * @param writable The cache to fetch anything else into.
+     * @return A cache which never writes to or locks the read-only directories.
+     * @see LayeredCache
+     */
+    static LayeredCache layered(List<Path> readOnlyRoots, Cache writable) {
+        return new LayeredCache(readOnlyRoots, writable);
+    }
+
     /**
      * Saves data inside the cache, but re-uses it if it is already present.
+     *
+     * <p>
+     *     If getting the data fails partway through, nothing should be left in the cache
+     *     under the key, so that the next call tries again.
+     * </p>
+     *
      * @param key A unique key for the data, split into path fragments.
      * @param data A supplier for the data to store in the cache.
      * @return A {@link Path} containing the data.
      */
     Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data);
 
+    /**
+     * Like {@link Cache#fetchIfAbsent(CacheKey, Supplier)}, but gives back the contents instead of
+     * where they are. Meant for small files, like POMs, which are always read in full.
+     * @param key A unique key for the data, split into path fragments.
+     * @param data A supplier for the data to store in the cache.
+     * @return The data.
+     */
+    default byte[] fetchBytesIfAbsent(CacheKey key, Supplier<InputStream> data) {
+        try {
+            return Files.readAllBytes(fetchIfAbsent(key, data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Saves data inside the cache unconditionally, invalidating any old values.
      * @param key A unique key for the data, split into path fragments.
@@ -44,4 +104,19 @@ public interface Cache {
     default boolean probablyContains(CacheKey cacheKey) {
         return false;
     }
+
+    /**
+     * Finds where the data for a key already is, without fetching, locking, or creating anything.
+     *
+     * <p>
+     *     Unlike {@link Cache#probablyContains(CacheKey)} a path given back here is fully written, but
+     *     it can still be removed by the time it is read. Caches which can't look things up without
+     *     fetching them find nothing.
+     * </p>
+     * @param key A unique key for the data, split into path fragments.
+     * @return A {@link Path} containing the data, if the cache already has it.
+     */
+    default Optional<Path> existing(CacheKey key) {
+        return Optional.empty();
+    }
 }
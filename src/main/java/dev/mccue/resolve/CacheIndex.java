@@ -0,0 +1,538 @@
+package dev.mccue.resolve;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file at the root of a {@link StandardCache} recording which files are in it,
+ * so that checking for a file doesn't need to touch the file system.
+ *
+ * <p>
+ *     Every file written through the cache appends a record with its path, size and SHA-256, and every
+ *     file removed by {@link StandardCache#evict(long)} appends one saying it is gone. The whole file is
+ *     read through a memory mapping when opened, and whatever other processes appended since is
+ *     read the same way at most once every {@link #REFRESH_INTERVAL}.
+ * </p>
+ *
+ * <p>
+ *     The index is rebuilt by walking the cache if it is missing, unreadable, or if a few of the
+ *     files it lists turn out not to exist anymore. Anything which removes files from the cache
+ *     without going through an indexed {@link StandardCache} should remove the index along with them.
+ * </p>
+ *
+ * <p>
+ *     A file missing from the index is looked for on disk as usual, and if the index can't be read
+ *     or written it is ignored. A file the index lists is trusted without looking on disk, though.
+ *     So when another process evicts a file, this one can still be handed its path for up to
+ *     {@link #REFRESH_INTERVAL} afterwards. Eviction only removes files nobody has used for a
+ *     while, which keeps that rare, but whoever opens the path has to expect it could be gone.
+ * </p>
+ */
+@NullMarked
+final class CacheIndex {
+    private static final System.Logger LOG = System.getLogger(CacheIndex.class.getName());
+
+    static final String FILE_NAME = ".index";
+
+    private static final byte[] MAGIC = "jresolve-cache-index-1\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte PRESENT = 1;
+    private static final byte REMOVED = 2;
+
+    private static final int SHA_256_BYTES = 32;
+
+    // kind, size, sha256 and the checksum of the record. The path makes up the rest.
+    private static final int FIXED_RECORD_BYTES = 1 + 8 + SHA_256_BYTES + 4;
+
+    static final Duration REFRESH_INTERVAL = Duration.ofSeconds(1);
+
+    // How many of the files listed are checked for when the index is opened.
+    private static final int SAMPLE_SIZE = 8;
+
+    private static final ConcurrentHashMap<Path, Opened> OPEN = new ConcurrentHashMap<>();
+
+    /**
+     * Where the index for a root ends up once someone opens it. Opening can walk the whole cache,
+     * so it happens here rather than inside the map, where it would block every root hashing nearby.
+     */
+    private static final class Opened {
+        private final Path root;
+        private final ReentrantLock lock;
+        private volatile @Nullable CacheIndex index;
+
+        Opened(Path root) {
+            this.root = root;
+            this.lock = new ReentrantLock();
+        }
+
+        CacheIndex get() {
+            var index = this.index;
+            if (index != null) {
+                return index;
+            }
+            lock.lock();
+            try {
+                index = this.index;
+                if (index == null) {
+                    index = new CacheIndex(root);
+                    this.index = index;
+                }
+                return index;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param size The size of the file in bytes.
+     * @param sha256 The SHA-256 of the file, if it was written through the cache.
+     */
+    record Entry(long size, byte @Nullable [] sha256) {
+    }
+
+    private final Path root;
+    private final Path file;
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    // Guards everything below. A FileLock is held on behalf of the whole JVM,
+    // so threads have to take turns before asking for one.
+    private final ReentrantLock lock;
+    private @Nullable FileChannel channel;
+    private @Nullable Object fileKey;
+    private long position;
+    private boolean broken;
+
+    private volatile long lastRefreshed;
+
+    CacheIndex(Path root) {
+        this.root = Objects.requireNonNull(root);
+        this.file = root.resolve(FILE_NAME);
+        this.entries = new ConcurrentHashMap<>();
+        this.lock = new ReentrantLock();
+        this.lastRefreshed = System.nanoTime();
+
+        lock.lock();
+        boolean usable;
+        try {
+            usable = open() && sampleExists();
+        } finally {
+            lock.unlock();
+        }
+        if (!usable) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return The index for the cache at the given root, shared by everything in the JVM using it.
+     */
+    static CacheIndex forRoot(Path root) {
+        return OPEN.computeIfAbsent(root.toAbsolutePath().normalize(), Opened::new).get();
+    }
+
+    /**
+     * Removes the index for the cache at the given root, so that whoever uses it next rebuilds it.
+     */
+    static void invalidate(Path root) {
+        try {
+            Files.deleteIfExists(root.resolve(FILE_NAME));
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Could not remove index. root=" + root, e);
+        }
+
+        var opened = OPEN.get(root.toAbsolutePath().normalize());
+        var open = opened == null ? null : opened.index;
+        if (open != null) {
+            open.refresh();
+        }
+    }
+
+    static String name(CacheKey key) {
+        return String.join("/", key.components());
+    }
+
+    private String name(Path filePath) {
+        var relative = root.relativize(filePath);
+        var name = new StringBuilder();
+        for (var component : relative) {
+            if (!name.isEmpty()) {
+                name.append('/');
+            }
+            name.append(component);
+        }
+        return name.toString();
+    }
+
+    /**
+     * @return What is recorded about the file for the key, or null if it is not known to be in the cache.
+     */
+    @Nullable Entry get(CacheKey key) {
+        refreshIfDue();
+        return entries.get(name(key));
+    }
+
+    void present(CacheKey key, long size, byte @Nullable [] sha256) {
+        append(PRESENT, name(key), size, sha256);
+    }
+
+    void removed(Path filePath) {
+        append(REMOVED, name(filePath), 0, null);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Reads whatever other processes have appended, no matter how recently that was last done.
+     */
+    void refresh() {
+        boolean stale;
+        lock.lock();
+        try {
+            stale = readAppended(true);
+        } finally {
+            lock.unlock();
+        }
+        if (stale) {
+            rebuild();
+        }
+    }
+
+    private void refreshIfDue() {
+        var now = System.nanoTime();
+        if (now - lastRefreshed < REFRESH_INTERVAL.toNanos() || !lock.tryLock()) {
+            return;
+        }
+        boolean stale;
+        try {
+            stale = readAppended(true);
+        } finally {
+            lock.unlock();
+        }
+        if (stale) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Opens the index file and reads everything in it, starting from scratch.
+     *
+     * @return false if the file is missing or unreadable and so needs to be rebuilt.
+     */
+    private boolean open() {
+        closeChannel();
+        entries.clear();
+        position = 0;
+        try {
+            if (!Files.isDirectory(root)) {
+                return false;
+            }
+            channel = FileChannel.open(
+                    file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE
+            );
+            fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+
+            FileLock fileLock = channel.lock(0, Long.MAX_VALUE, true);
+            try {
+                var header = ByteBuffer.allocate(MAGIC.length);
+                int read;
+                do {
+                    read = channel.read(header, header.position());
+                } while (read > 0 && header.hasRemaining());
+                if (header.hasRemaining() || !Arrays.equals(header.array(), MAGIC)) {
+                    LOG.log(Level.TRACE, () -> "Index is missing or from another version. file=" + file);
+                    return false;
+                }
+                position = MAGIC.length;
+                return read(channel.size());
+            } finally {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Could not open index. file=" + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks that a few of the files listed are actually there, to catch files having been
+     * removed from the cache without the index being told.
+     */
+    private boolean sampleExists() {
+        var names = new ArrayList<>(entries.keySet());
+        Collections.shuffle(names, ThreadLocalRandom.current());
+        for (var name : names.subList(0, Math.min(SAMPLE_SIZE, names.size()))) {
+            if (!Files.exists(Path.of(root.toString(), name.split("/")))) {
+                LOG.log(Level.TRACE, () -> "Indexed file is missing. name=" + name);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads records appended since the last read, reopening the file if it was replaced by a rebuild.
+     *
+     * @return true if the index needs to be rebuilt.
+     */
+    private boolean readAppended(boolean shared) {
+        lastRefreshed = System.nanoTime();
+        if (broken) {
+            return false;
+        }
+        try {
+            Object currentKey;
+            try {
+                currentKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            } catch (NoSuchFileException e) {
+                LOG.log(Level.TRACE, () -> "Index was removed. file=" + file);
+                return true;
+            }
+            if (channel == null || currentKey == null || !currentKey.equals(fileKey)) {
+                LOG.log(Level.TRACE, () -> "Index was replaced, reading it again. file=" + file);
+                return !open();
+            }
+
+            FileLock fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+            try {
+                return !read(channel.size());
+            } finally {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Could not read index. file=" + file, e);
+            markBroken();
+            return false;
+        }
+    }
+
+    /**
+     * Reads complete records between the current position and the end. An incomplete record at the
+     * end is left for later, since it can only be from a process which died while appending.
+     *
+     * @return false if a record is corrupt.
+     */
+    private boolean read(long end) throws IOException {
+        var channel = Objects.requireNonNull(this.channel);
+        if (end <= position) {
+            return true;
+        }
+
+        var buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+        while (buffer.remaining() >= 4) {
+            var start = buffer.position();
+            var length = buffer.getInt();
+            if (length < FIXED_RECORD_BYTES || length > buffer.remaining()) {
+                if (length < FIXED_RECORD_BYTES) {
+                    return false;
+                }
+                break;
+            }
+
+            var contents = new byte[length - 4];
+            buffer.get(contents);
+            var checksum = buffer.getInt();
+            var crc = new CRC32();
+            crc.update(contents);
+            if ((int) crc.getValue() != checksum) {
+                LOG.log(Level.TRACE, () -> "Index record is corrupt. file=" + file + ", offset=" + (position + start));
+                return false;
+            }
+
+            apply(ByteBuffer.wrap(contents));
+            position += buffer.position() - start;
+        }
+        return true;
+    }
+
+    private void apply(ByteBuffer record) {
+        var kind = record.get();
+        var size = record.getLong();
+        var sha256 = new byte[SHA_256_BYTES];
+        record.get(sha256);
+        var name = StandardCharsets.UTF_8.decode(record).toString();
+
+        if (kind == REMOVED) {
+            entries.remove(name);
+        }
+        else {
+            var known = false;
+            for (var b : sha256) {
+                known |= b != 0;
+            }
+            entries.put(name, new Entry(size, known ? sha256 : null));
+        }
+    }
+
+    private static ByteBuffer encode(byte kind, String name, long size, byte @Nullable [] sha256) {
+        var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        var contents = ByteBuffer.allocate(FIXED_RECORD_BYTES - 4 + nameBytes.length);
+        contents.put(kind);
+        contents.putLong(size);
+        contents.put(sha256 == null ? new byte[SHA_256_BYTES] : sha256);
+        contents.put(nameBytes);
+
+        var crc = new CRC32();
+        crc.update(contents.array());
+
+        var record = ByteBuffer.allocate(4 + contents.capacity() + 4);
+        record.putInt(contents.capacity() + 4);
+        record.put(contents.array());
+        record.putInt((int) crc.getValue());
+        return record.flip();
+    }
+
+    private void append(byte kind, String name, long size, byte @Nullable [] sha256) {
+        var record = encode(kind, name, size, sha256);
+        boolean stale;
+        lock.lock();
+        try {
+            stale = readAppended(false);
+            if (!stale && !broken) {
+                var channel = Objects.requireNonNull(this.channel);
+                FileLock fileLock = channel.lock();
+                try {
+                    // Anything past what could be read is from a process that died while appending.
+                    if (channel.size() > position) {
+                        channel.truncate(position);
+                    }
+                    while (record.hasRemaining()) {
+                        channel.write(record, position + record.position());
+                    }
+                    record.rewind();
+                    stale = !read(position + record.remaining());
+                } finally {
+                    fileLock.release();
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Could not append to index. file=" + file, e);
+            markBroken();
+            return;
+        } finally {
+            lock.unlock();
+        }
+        if (stale) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Replaces the index with one listing every file currently in the cache. This holds the
+     * structure lock of the cache so no files are evicted while it walks.
+     */
+    private void rebuild() {
+        LOG.log(Level.TRACE, () -> "Rebuilding index. root=" + root);
+        try {
+            Files.createDirectories(root);
+            StandardCache.withStructureLock(root, () -> {
+                lock.lock();
+                try {
+                    var tempFile = Files.createTempFile(root, FILE_NAME, ".part");
+                    try {
+                        try (var out = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+                             var files = Files.walk(root)) {
+                            out.write(ByteBuffer.wrap(MAGIC));
+                            for (var path : files.toList()) {
+                                if (path.getFileName().toString().startsWith(".")) {
+                                    continue;
+                                }
+                                BasicFileAttributes attributes;
+                                try {
+                                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                                } catch (NoSuchFileException e) {
+                                    continue;
+                                }
+                                if (attributes.isRegularFile()) {
+                                    var record = encode(PRESENT, name(path), attributes.size(), null);
+                                    while (record.hasRemaining()) {
+                                        out.write(record);
+                                    }
+                                }
+                            }
+                        }
+                        try {
+                            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+                        } catch (AtomicMoveNotSupportedException e) {
+                            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    } finally {
+                        Files.deleteIfExists(tempFile);
+                    }
+
+                    broken = false;
+                    if (!open()) {
+                        markBroken();
+                    }
+                } catch (IOException e) {
+                    LOG.log(Level.TRACE, () -> "Could not rebuild index. root=" + root, e);
+                    markBroken();
+                } finally {
+                    lock.unlock();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.TRACE, () -> "Could not rebuild index. root=" + root, e);
+            lock.lock();
+            try {
+                markBroken();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops using the index. What was read from it so far can't be trusted to stay up to date,
+     * so it is forgotten and every lookup goes to the file system from here on.
+     */
+    private void markBroken() {
+        broken = true;
+        entries.clear();
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.TRACE, () -> "Could not close index. file=" + file, e);
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CacheIndex[root=" + root + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,294 @@
+package dev.mccue.resolve;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger.Level;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Cache} which stores each distinct file once, by its SHA-256, and links to it from the path
+ * for each key.
+ *
+ * <p>
+ *     The same jar often ends up cached once per repository it was fetched from, since every
+ *     repository has its own prefix in a {@link CacheKey}. Here all of those paths are hard links to a single
+ *     file under {@code .blobs}. On file systems without hard links each path gets its own copy instead.
+ * </p>
+ *
+ * <p>
+ *     Since the paths share their contents, files in this cache must never be modified in place.
+ * </p>
+ *
+ * <p>
+ *     Nothing is removed from {@code .blobs} when the paths linking to it are. {@link #collectGarbage()}
+ *     removes stored files which nothing links to anymore.
+ * </p>
+ */
+@NullMarked
+public final class ContentAddressedCache implements Cache {
+    private static final System.Logger LOG = System.getLogger(ContentAddressedCache.class.getName());
+
+    private static final Duration STALE_TEMP_FILE_AGE = Duration.ofHours(1);
+
+    private final Path root;
+
+    ContentAddressedCache(Path root) {
+        this.root = Objects.requireNonNull(root);
+    }
+
+    /**
+     * What was removed by {@link #collectGarbage()}.
+     * @param blobs The number of stored files removed.
+     * @param bytes The total size of the stored files removed.
+     */
+    public record GarbageCollection(int blobs, long bytes) {
+    }
+
+    private Path keyPath(CacheKey key) {
+        return Path.of(
+                root.toString(),
+                key.components().toArray(String[]::new)
+        );
+    }
+
+    private Path blobsRoot() {
+        return root.resolve(".blobs");
+    }
+
+    private Path blobPath(String sha256) {
+        return blobsRoot().resolve("sha256").resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    @Override
+    public Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data) {
+        var filePath = keyPath(key);
+        if (Files.exists(filePath)) {
+            LOG.log(Level.TRACE, () -> "File exists. filePath=" + filePath);
+            return filePath;
+        }
+
+        var lock = StandardCache.lockKey(filePath);
+        try {
+            if (Files.exists(filePath)) {
+                LOG.log(Level.TRACE, () -> "File was added while waiting. filePath=" + filePath);
+                return filePath;
+            }
+            store(filePath, data);
+            return filePath;
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public Path fetch(CacheKey key, Supplier<InputStream> data) {
+        var filePath = keyPath(key);
+        var lock = StandardCache.lockKey(filePath);
+        try {
+            store(filePath, data);
+            return filePath;
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public boolean probablyContains(CacheKey key) {
+        return Files.exists(keyPath(key));
+    }
+
+    @Override
+    public Optional<Path> existing(CacheKey key) {
+        var filePath = keyPath(key);
+        return Files.exists(filePath) ? Optional.of(filePath) : Optional.empty();
+    }
+
+    /**
+     * Downloads into a temporary file while hashing it, then links the path for the key to the stored
+     * file with that hash. Both the stored file and the path for the key only ever appear fully written.
+     */
+    private void store(Path filePath, Supplier<InputStream> data) {
+        LOG.log(Level.TRACE, () -> "About to get data from input source. data=" + data);
+        Path tempFile = null;
+        Path link = null;
+        try {
+            var tempDirectory = Files.createDirectories(blobsRoot().resolve("tmp"));
+            Files.createDirectories(filePath.getParent());
+
+            tempFile = Files.createTempFile(tempDirectory, "blob", ".part");
+            var digest = sha256();
+            try (var inputStream = new DigestInputStream(data.get(), digest);
+                 var outputStream = Files.newOutputStream(tempFile)) {
+                inputStream.transferTo(outputStream);
+            }
+            var blob = blobPath(HexFormat.of().formatHex(digest.digest()));
+            Files.createDirectories(blob.getParent());
+
+            link = Files.createTempFile(filePath.getParent(), "." + filePath.getFileName(), ".part");
+            Files.delete(link);
+
+            if (!linkTo(link, blob)) {
+                // The link is made before the blob is put in place, so garbage collection
+                // never sees it without something referencing it.
+                linkOrCopy(link, tempFile);
+                move(tempFile, blob);
+                tempFile = null;
+            }
+            else {
+                var blobPath = blob;
+                LOG.log(Level.TRACE, () -> "Reusing stored file. filePath=" + filePath + ", blob=" + blobPath);
+            }
+
+            move(link, filePath);
+            link = null;
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Error getting data. filePath=" + filePath, e);
+            throw new UncheckedIOException(e);
+        } finally {
+            deleteQuietly(tempFile);
+            deleteQuietly(link);
+        }
+    }
+
+    /**
+     * @return false if there is no stored file to link to.
+     */
+    private static boolean linkTo(Path link, Path blob) throws IOException {
+        if (!Files.exists(blob)) {
+            return false;
+        }
+        try {
+            linkOrCopy(link, blob);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Garbage collected out from under us.
+            return false;
+        }
+    }
+
+    private static void linkOrCopy(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            LOG.log(Level.TRACE, () -> "Could not create hard link, copying instead. link=" + link, e);
+            Files.copy(existing, link);
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteQuietly(@Nullable Path path) {
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.log(Level.TRACE, () -> "Could not delete temporary file. path=" + path, e);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Removes stored files which no path in the cache links to anymore, along with temporary files
+     * left behind by downloads that never finished.
+     *
+     * <p>
+     *     Whether anything links to a stored file is worked out from its link count, so on
+     *     file systems which don't report one nothing is removed.
+     * </p>
+     *
+     * @return What was removed.
+     */
+    public GarbageCollection collectGarbage() {
+        var blobs = 0;
+        var bytes = 0L;
+
+        var cutoff = System.currentTimeMillis() - STALE_TEMP_FILE_AGE.toMillis();
+        try (var tempFiles = Files.list(blobsRoot().resolve("tmp"))) {
+            for (var tempFile : tempFiles.toList()) {
+                if (Files.getLastModifiedTime(tempFile).toMillis() < cutoff) {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            LOG.log(Level.TRACE, () -> "No temporary files. root=" + root);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try (var stored = Files.walk(blobsRoot().resolve("sha256"))) {
+            for (var blob : stored.filter(Files::isRegularFile).toList()) {
+                int links;
+                try {
+                    links = ((Number) Files.getAttribute(blob, "unix:nlink")).intValue();
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    LOG.log(Level.TRACE, () -> "Link counts are not available. root=" + root, e);
+                    break;
+                }
+
+                if (links <= 1) {
+                    var size = Files.size(blob);
+                    if (Files.deleteIfExists(blob)) {
+                        LOG.log(Level.TRACE, () -> "Removed unreferenced blob. blob=" + blob);
+                        blobs++;
+                        bytes += size;
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            LOG.log(Level.TRACE, () -> "Nothing stored. root=" + root);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new GarbageCollection(blobs, bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ContentAddressedCache contentAddressedCache
+                && this.root.equals(contentAddressedCache.root);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.root.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ContentAddressedCache[root=" + root + "]";
+    }
+}
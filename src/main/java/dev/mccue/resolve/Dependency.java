@@ -67,7 +67,7 @@ public record Dependency(
         return maven(
                 new Group(group),
                 new Artifact(artifact),
-                new Version(version),
+                Version.of(version),
                 repositories
         );
     }
@@ -94,7 +94,7 @@ public record Dependency(
         return maven(
                 new Group(group),
                 new Artifact(artifact),
-                new Version(version),
+                Version.of(version),
                 List.of(MavenRepository.central())
         );
     }
@@ -121,7 +121,7 @@ public record Dependency(
 
         var group = new Group(String.join(".", Objects.requireNonNull(packageUrl.getNamespace(), "Package url must have a namespace")));
         var artifact = new Artifact(packageUrl.getName());
-        var version = new Version(Objects.requireNonNull(packageUrl.getVersion(), "Package url must have a version"));
+        var version = Version.of(Objects.requireNonNull(packageUrl.getVersion(), "Package url must have a version"));
 
         var repositoryNames = List.of("central");
         String classifierStr = null;
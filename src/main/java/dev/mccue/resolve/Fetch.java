@@ -7,32 +7,35 @@ import java.io.File;
 import java.lang.module.ModuleFinder;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @NullMarked
 public final class Fetch {
-    private final Supplier<? extends Resolve.@Nullable Result> resolutionSupplier;
+    private final Function<Consumer<? super Dependency>, Resolve.@Nullable Result> resolutionSupplier;
     private final List<Dependency> dependencies;
     private @Nullable Cache cache;
     private boolean includeLibraries;
     private boolean includeSources;
     private boolean includeDocumentation;
-    private ExecutorService executorService;
+    private @Nullable ExecutorService executorService;
+    private Consumer<? super Fetched> onFetched;
+    private boolean downloadDuringResolution;
 
     public Fetch(Resolve resolve) {
         this(resolve::run, List.of(), resolve.cache);
     }
 
     public Fetch(Resolve.Result result) {
-        this(() -> result, List.of(), Cache.standard());
+        this(__ -> result, List.of(), Cache.standard());
     }
 
     /**
@@ -40,19 +43,19 @@ public final class Fetch {
      * @param dependencies The list of deps.
      */
     public Fetch(List<Dependency> dependencies) {
-        this(() -> null, dependencies, Cache.standard());
+        this(__ -> null, dependencies, Cache.standard());
     }
 
-    private Fetch(Supplier<Resolve.Result> resolutionSupplier, List<Dependency> dependencies, Cache cache) {
+    private Fetch(
+            Function<Consumer<? super Dependency>, Resolve.@Nullable Result> resolutionSupplier,
+            List<Dependency> dependencies,
+            Cache cache
+    ) {
         this.resolutionSupplier = resolutionSupplier;
         this.dependencies = List.copyOf(dependencies);
-        var count = new AtomicInteger();
-        this.executorService = Executors.newFixedThreadPool(8, (r) -> {
-            var t = new Thread(r);
-            t.setName("fetch-" + count.getAndIncrement());
-            t.setDaemon(true);
-            return t;
-        });
+        this.executorService = null;
+        this.onFetched = __ -> {};
+        this.downloadDuringResolution = true;
         this.cache = cache;
         this.includeLibraries = true;
         this.includeSources = false;
@@ -64,11 +67,78 @@ public final class Fetch {
         return this;
     }
 
-    public Fetch withExecutorService(ExecutorService executorService) {
+    /**
+     * Sets the executor artifacts are downloaded on.
+     *
+     * <p>
+     *     By default each call to {@link #run()} uses a fresh virtual thread per task and
+     *     shuts it down once every download finishes. An executor given here is never shut down.
+     * </p>
+     *
+     * @param executorService The executor to use, or null to go back to the default.
+     * @return This, for chaining.
+     */
+    public Fetch withExecutorService(@Nullable ExecutorService executorService) {
         this.executorService = executorService;
         return this;
     }
 
+    /**
+     * Something that has been fetched and is ready to use.
+     * @param library The library it belongs to.
+     * @param kind What was fetched for that library.
+     * @param path Where it is on disk.
+     */
+    public record Fetched(Library library, Kind kind, Path path) {
+        public enum Kind {
+            LIBRARY,
+            SOURCES,
+            DOCUMENTATION
+        }
+
+        public Fetched {
+            Objects.requireNonNull(library);
+            Objects.requireNonNull(kind);
+            Objects.requireNonNull(path);
+        }
+    }
+
+    /**
+     * Sets a callback to be told about each library, source and documentation artifact
+     * as soon as it is available, rather than waiting for {@link #run()} to return.
+     *
+     * <p>
+     *     The callback is invoked on whichever thread did the fetching, so it may be
+     *     called concurrently. If it throws, {@link #run()} will fail.
+     * </p>
+     *
+     * @param onFetched The callback.
+     * @return This, for chaining.
+     */
+    public Fetch onFetched(Consumer<? super Fetched> onFetched) {
+        this.onFetched = Objects.requireNonNull(onFetched);
+        return this;
+    }
+
+    /**
+     * Whether to start downloading libraries while a {@link Resolve} is still running.
+     *
+     * <p>
+     *     When on, which is the default, a library starts downloading as soon as a version of it
+     *     is picked. If a newer version is picked later on, the download of the old one is interrupted
+     *     once resolution finishes, leaving nothing of it in the cache. This only has an effect when
+     *     fetching for a {@link Resolve} and can waste some bandwidth on versions that end up not being
+     *     used, in exchange for not waiting on resolution to finish before downloading anything.
+     * </p>
+     *
+     * @param downloadDuringResolution Whether to download libraries during resolution.
+     * @return This, for chaining.
+     */
+    public Fetch downloadDuringResolution(boolean downloadDuringResolution) {
+        this.downloadDuringResolution = downloadDuringResolution;
+        return this;
+    }
+
     public Fetch includeLibraries(boolean includeLibraries) {
         this.includeLibraries = includeLibraries;
         return this;
@@ -94,7 +164,59 @@ public final class Fetch {
     }
 
     public Result run() {
-        var resolution = resolutionSupplier.get();
+        if (executorService != null) {
+            return run(executorService);
+        }
+
+        try (var executorService = Resolve.newVirtualThreadExecutor("fetch")) {
+            return run(executorService);
+        }
+    }
+
+    /**
+     * A library download started before resolution finished.
+     *
+     * @param path Completed with where the library ended up.
+     * @param task The download itself, which can be interrupted.
+     */
+    private record Download(CompletableFuture<Path> path, Future<?> task) {
+        static Download start(ExecutorService executorService, Dependency dependency, @Nullable Cache cache) {
+            var path = new CompletableFuture<Path>();
+            // Submitted instead of using supplyAsync so that the download can be interrupted.
+            var task = executorService.submit(() -> {
+                try {
+                    path.complete(dependency.coordinate().getLibraryLocation(cache));
+                } catch (Throwable t) {
+                    path.completeExceptionally(t);
+                }
+            });
+            return new Download(path, task);
+        }
+
+        void cancel() {
+            task.cancel(true);
+            path.cancel(false);
+        }
+    }
+
+    private Result run(ExecutorService executorService) {
+        // Libraries that started downloading before resolution finished. Only the ones
+        // which are still selected at the end are reported to onFetched.
+        var speculative = new ConcurrentHashMap<DependencyId, Download>();
+        Resolve.@Nullable Result resolution;
+        try {
+            resolution = resolutionSupplier.apply(
+                    this.includeLibraries && this.downloadDuringResolution
+                            ? dependency -> speculative.computeIfAbsent(
+                                    new DependencyId(dependency),
+                                    __ -> Download.start(executorService, dependency, this.cache)
+                            )
+                            : __ -> {}
+            );
+        } catch (RuntimeException e) {
+            speculative.values().forEach(Download::cancel);
+            throw e;
+        }
 
         var selectedDependencies = new ArrayList<Dependency>();
         if (resolution != null) {
@@ -105,24 +227,40 @@ public final class Fetch {
         var futureFetchedLibraries = new HashMap<Library, Future<Path>>();
         if (this.includeLibraries) {
             selectedDependencies.forEach(dependency -> {
+                var started = speculative.remove(new DependencyId(dependency));
                 futureFetchedLibraries.put(
                         dependency.library(),
-                        this.executorService.submit(() ->
-                                dependency.coordinate().getLibraryLocation(this.cache)
-                        )
+                        started != null
+                                ? started.path().thenApply(path -> {
+                                    onFetched.accept(new Fetched(dependency.library(), Fetched.Kind.LIBRARY, path));
+                                    return path;
+                                })
+                                : executorService.submit(() -> {
+                                    var path = dependency.coordinate().getLibraryLocation(this.cache);
+                                    onFetched.accept(new Fetched(dependency.library(), Fetched.Kind.LIBRARY, path));
+                                    return path;
+                                })
                 );
             });
         }
 
+        // Whatever is left was superseded by another version. Downloading into the cache
+        // only ever publishes whole files, so these can be stopped partway through.
+        speculative.values().forEach(Download::cancel);
+
 
         var futureSources = new HashMap<Library, Future<Optional<Path>>>();
         if (this.includeSources) {
             selectedDependencies.forEach(dependency -> {
                 futureSources.put(
                         dependency.library(),
-                        this.executorService.submit(() ->
-                                dependency.coordinate().getLibrarySourcesLocation(this.cache)
-                        )
+                        executorService.submit(() -> {
+                            var path = dependency.coordinate().getLibrarySourcesLocation(this.cache);
+                            path.ifPresent(p -> onFetched.accept(
+                                    new Fetched(dependency.library(), Fetched.Kind.SOURCES, p)
+                            ));
+                            return path;
+                        })
                 );
             });
         }
@@ -132,9 +270,13 @@ public final class Fetch {
             selectedDependencies.forEach(dependency -> {
                 futureDocumentation.put(
                         dependency.library(),
-                        this.executorService.submit(() ->
-                                dependency.coordinate().getLibraryDocumentationLocation(this.cache)
-                        )
+                        executorService.submit(() -> {
+                            var path = dependency.coordinate().getLibraryDocumentationLocation(this.cache);
+                            path.ifPresent(p -> onFetched.accept(
+                                    new Fetched(dependency.library(), Fetched.Kind.DOCUMENTATION, p)
+                            ));
+                            return path;
+                        })
                 );
             });
         }
@@ -0,0 +1,122 @@
+package dev.mccue.resolve;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+import java.io.InputStream;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Cache} which looks for files in read-only directories before going to a writable cache.
+ *
+ * <p>
+ *     This is meant for a cache which is populated ahead of time and then shipped somewhere it
+ *     can't be written to, like a layer of a container image. The read-only directories are laid out
+ *     the same way as a {@link StandardCache}. They are only ever looked in, so nothing is locked
+ *     or written while everything needed is found in them.
+ * </p>
+ *
+ * <p>
+ *     Anything not found in them is fetched into the writable cache. Files replaced with
+ *     {@link #fetch(CacheKey, Supplier)} are written there as well and are used instead of any
+ *     read-only copy for the rest of the life of this cache. Another process will still see the
+ *     read-only copy first.
+ * </p>
+ */
+@NullMarked
+public final class LayeredCache implements Cache {
+    private static final System.Logger LOG = System.getLogger(LayeredCache.class.getName());
+
+    private final List<Path> readOnlyRoots;
+    private final Cache writable;
+
+    private final Set<CacheKey> replaced;
+
+    LayeredCache(List<Path> readOnlyRoots, Cache writable) {
+        this.readOnlyRoots = List.copyOf(readOnlyRoots);
+        this.writable = Objects.requireNonNull(writable);
+        this.replaced = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * @return Where the file for the key is in the first read-only directory that has it, if any does.
+     */
+    private @Nullable Path readOnlyPath(CacheKey key) {
+        if (replaced.contains(key)) {
+            return null;
+        }
+
+        var components = key.components().toArray(String[]::new);
+        for (var root : readOnlyRoots) {
+            var filePath = Path.of(root.toString(), components);
+            if (Files.isRegularFile(filePath)) {
+                LOG.log(Level.TRACE, () -> "Found file in read-only directory. filePath=" + filePath);
+                return filePath;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data) {
+        var filePath = readOnlyPath(key);
+        if (filePath != null) {
+            return filePath;
+        }
+        return writable.fetchIfAbsent(key, data);
+    }
+
+    @Override
+    public Path fetch(CacheKey key, Supplier<InputStream> data) {
+        var filePath = writable.fetch(key, data);
+        replaced.add(key);
+        return filePath;
+    }
+
+    @Override
+    public boolean probablyContains(CacheKey key) {
+        return readOnlyPath(key) != null || writable.probablyContains(key);
+    }
+
+    @Override
+    public Optional<Path> existing(CacheKey key) {
+        var filePath = readOnlyPath(key);
+        if (filePath != null) {
+            return Optional.of(filePath);
+        }
+        return writable.existing(key);
+    }
+
+    public List<Path> readOnlyRoots() {
+        return readOnlyRoots;
+    }
+
+    public Cache writable() {
+        return writable;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof LayeredCache layeredCache
+                && this.readOnlyRoots.equals(layeredCache.readOnlyRoots)
+                && this.writable.equals(layeredCache.writable);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(readOnlyRoots, writable);
+    }
+
+    @Override
+    public String toString() {
+        return "LayeredCache[readOnlyRoots=" + readOnlyRoots + ", writable=" + writable + "]";
+    }
+}
@@ -0,0 +1,358 @@
+package dev.mccue.resolve;
+
+import dev.mccue.resolve.maven.Classifier;
+import dev.mccue.resolve.maven.MavenCoordinate;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Reads and writes the manifests consulted during a resolution.
+ *
+ * <p>
+ *     Every decision made by {@link Resolve} is a function of the top level dependencies,
+ *     the overrides, and the manifests of each dependency that gets expanded. Saving those
+ *     manifests is therefore enough to reproduce the selected dependencies, library graph and
+ *     trace of a resolution exactly, without fetching or parsing anything.
+ * </p>
+ *
+ * <p>
+ *     Coordinates are not written out directly. Each one is either one of the inputs to the
+ *     resolution or a {@link MavenCoordinate} found in a manifest, which is rebuilt the same way
+ *     {@link dev.mccue.resolve.maven.MavenRepository} would have built it. A resolution which pulls
+ *     in any other kind of coordinate from a manifest can't be written to a lockfile.
+ * </p>
+ *
+ * <pre>
+ * jresolve-lock 1
+ * inputs  6f1c...
+ * manifest  input:0  org.clojure  clojure
+ * dependency  org.clojure  spec.alpha    0.3.218
+ * manifest  child:0:0  org.clojure  spec.alpha
+ * selected  org.clojure  clojure    MavenCoordinateId[group=org.clojure, artifact=clojure, version=1.11.1]
+ * end
+ * </pre>
+ *
+ * <p>
+ *     Fields are separated by tabs.
+ * </p>
+ */
+final class Lockfile {
+    private static final String HEADER = "jresolve-lock 1";
+
+    private Lockfile() {}
+
+    /**
+     * A manifest that was expanded during resolution.
+     */
+    record Entry(Library library, Coordinate coordinate, Manifest manifest) {
+    }
+
+    /**
+     * Where a coordinate can be found in the lockfile, either among the inputs or in an earlier manifest.
+     */
+    private record Ref(Coordinate coordinate, String ref) {
+    }
+
+    /**
+     * Finds the entry for exactly this coordinate among those with its id. Two coordinates can share
+     * an id and still have different manifests, for instance when they look in different repositories.
+     * They are compared rather than hashed, since hashing one can mean hashing everything reachable
+     * from its manifest.
+     */
+    static @Nullable Entry find(Map<DependencyId, List<Entry>> entries, Library library, Coordinate coordinate) {
+        for (var entry : entries.getOrDefault(new DependencyId(library, coordinate.id()), List.of())) {
+            if (entry.coordinate().equals(coordinate)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static void addRef(Map<DependencyId, List<Ref>> refs, Library library, Coordinate coordinate, String ref) {
+        var sameId = refs.computeIfAbsent(new DependencyId(library, coordinate.id()), __ -> new ArrayList<>());
+        for (var existing : sameId) {
+            if (existing.coordinate().equals(coordinate)) {
+                return;
+            }
+        }
+        sameId.add(new Ref(coordinate, ref));
+    }
+
+    private static @Nullable String findRef(Map<DependencyId, List<Ref>> refs, Library library, Coordinate coordinate) {
+        for (var existing : refs.getOrDefault(new DependencyId(library, coordinate.id()), List.of())) {
+            if (existing.coordinate().equals(coordinate)) {
+                return existing.ref();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A hash of the top level dependencies and overrides, in the order they were given.
+     *
+     * <p>
+     *     This relies on {@link Coordinate#toString()} describing a coordinate fully. If
+     *     it doesn't, the hash will simply never match and the lockfile won't be used.
+     * </p>
+     */
+    static String inputsHash(
+            Map<Library, Dependency> dependencies,
+            Map<Library, Dependency> overrides
+    ) {
+        var description = new StringBuilder();
+        dependencies.forEach((library, dependency) ->
+                describe(description.append("dependency\t"), library, dependency));
+        overrides.forEach((library, dependency) ->
+                describe(description.append("override\t"), library, dependency));
+
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest(description.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void describe(StringBuilder description, Library library, Dependency dependency) {
+        description.append(library)
+                .append('\t')
+                .append(dependency.library())
+                .append('\t')
+                .append(dependency.coordinate())
+                .append('\t')
+                .append(exclusionFields(dependency.exclusions()))
+                .append('\n');
+    }
+
+    private static List<String> exclusionFields(Exclusions exclusions) {
+        return exclusions.toSet()
+                .stream()
+                .map(exclusion -> exclusion.group().value() + ":" + exclusion.artifact().value())
+                .sorted()
+                .toList();
+    }
+
+    private static List<Dependency> inputs(
+            Map<Library, Dependency> dependencies,
+            Map<Library, Dependency> overrides
+    ) {
+        var inputs = new ArrayList<Dependency>();
+        dependencies.forEach((library, dependency) ->
+                inputs.add(new Dependency(library, dependency.coordinate(), dependency.exclusions())));
+        overrides.forEach((library, dependency) ->
+                inputs.add(new Dependency(library, dependency.coordinate(), dependency.exclusions())));
+        return inputs;
+    }
+
+    /**
+     * The coordinate {@link dev.mccue.resolve.maven.MavenRepository} would make for a dependency
+     * declared in the POM of the parent coordinate.
+     */
+    private static MavenCoordinate childCoordinate(
+            MavenCoordinate parent,
+            Group group,
+            Artifact artifact,
+            Version version,
+            Classifier classifier
+    ) {
+        return new MavenCoordinate(
+                group,
+                artifact,
+                version,
+                parent.repositories(),
+                parent.scopes(),
+                classifier,
+                Classifier.SOURCES,
+                Classifier.JAVADOC,
+                parent.jdkVersion(),
+                parent.os()
+        );
+    }
+
+    /**
+     * @throws IllegalStateException If the resolution can't be represented as a lockfile.
+     */
+    static String render(
+            Map<Library, Dependency> dependencies,
+            Map<Library, Dependency> overrides,
+            List<Entry> expanded,
+            List<Dependency> selected
+    ) {
+        var lines = new ArrayList<List<String>>();
+        lines.add(List.of(HEADER));
+        lines.add(List.of("inputs", inputsHash(dependencies, overrides)));
+
+        var refs = new HashMap<DependencyId, List<Ref>>();
+        var inputs = inputs(dependencies, overrides);
+        for (int i = 0; i < inputs.size(); i++) {
+            addRef(refs, inputs.get(i).library(), inputs.get(i).coordinate(), "input:" + i);
+        }
+
+        for (int m = 0; m < expanded.size(); m++) {
+            var entry = expanded.get(m);
+            var ref = findRef(refs, entry.library(), entry.coordinate());
+            if (ref == null) {
+                throw new IllegalStateException("Cannot tell where " + entry.coordinate() + " came from");
+            }
+            lines.add(List.of(
+                    "manifest",
+                    ref,
+                    entry.library().group().value(),
+                    entry.library().artifact().value(),
+                    entry.library().variant().value()
+            ));
+
+            var manifestDependencies = entry.manifest().dependencies();
+            for (int k = 0; k < manifestDependencies.size(); k++) {
+                var dependency = manifestDependencies.get(k);
+                if (!(entry.coordinate() instanceof MavenCoordinate parent)
+                        || !(dependency.coordinate() instanceof MavenCoordinate child)
+                        || !childCoordinate(parent, child.group(), child.artifact(), child.version(), child.classifier())
+                                .equals(child)) {
+                    throw new IllegalStateException(
+                            "Cannot write " + dependency.coordinate() + " from the manifest of " + entry.coordinate()
+                    );
+                }
+
+                var fields = new ArrayList<>(List.of(
+                        "dependency",
+                        dependency.library().group().value(),
+                        dependency.library().artifact().value(),
+                        dependency.library().variant().value(),
+                        child.version().toString(),
+                        child.classifier().value()
+                ));
+                fields.addAll(exclusionFields(dependency.exclusions()));
+                lines.add(fields);
+
+                addRef(refs, dependency.library(), dependency.coordinate(), "child:" + m + ":" + k);
+            }
+        }
+
+        for (var dependency : selected) {
+            lines.add(List.of(
+                    "selected",
+                    dependency.library().group().value(),
+                    dependency.library().artifact().value(),
+                    dependency.library().variant().value(),
+                    dependency.coordinate().id().toString()
+            ));
+        }
+        lines.add(List.of("end"));
+
+        var content = new StringBuilder();
+        for (var fields : lines) {
+            for (var field : fields) {
+                if (field.indexOf('\t') != -1 || field.indexOf('\n') != -1 || field.indexOf('\r') != -1) {
+                    throw new IllegalStateException("Cannot write " + field + " to a lockfile");
+                }
+            }
+            content.append(String.join("\t", fields)).append('\n');
+        }
+        return content.toString();
+    }
+
+    /**
+     * Writes a rendered lockfile next to where it goes and then moves it into place, so that
+     * anyone reading the lockfile sees either the old one or the new one in full.
+     */
+    static void write(Path lockfile, String content) throws IOException {
+        var filePath = lockfile.toAbsolutePath();
+        var tempFile = Files.createTempFile(filePath.getParent(), "." + filePath.getFileName(), ".part");
+        try {
+            Files.writeString(tempFile, content);
+            try {
+                Files.move(tempFile, filePath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return The manifests recorded in the lockfile, grouped by id, or empty if it was written for
+     * different inputs or can't be understood.
+     */
+    static Optional<Map<DependencyId, List<Entry>>> parse(
+            String content,
+            Map<Library, Dependency> dependencies,
+            Map<Library, Dependency> overrides
+    ) {
+        var lines = content.lines().toList();
+        if (lines.size() < 3
+                || !HEADER.equals(lines.get(0))
+                || !("inputs\t" + inputsHash(dependencies, overrides)).equals(lines.get(1))
+                || !"end".equals(lines.get(lines.size() - 1))) {
+            return Optional.empty();
+        }
+
+        var inputs = inputs(dependencies, overrides);
+        var manifests = new ArrayList<List<Dependency>>();
+        var coordinates = new ArrayList<Coordinate>();
+        var libraries = new ArrayList<Library>();
+        try {
+            for (var line : lines.subList(2, lines.size() - 1)) {
+                var fields = line.split("\t", -1);
+                switch (fields[0]) {
+                    case "manifest" -> {
+                        var ref = fields[1].split(":");
+                        var coordinate = switch (ref[0]) {
+                            case "input" -> inputs.get(Integer.parseInt(ref[1])).coordinate();
+                            case "child" -> manifests.get(Integer.parseInt(ref[1]))
+                                    .get(Integer.parseInt(ref[2]))
+                                    .coordinate();
+                            default -> throw new IllegalArgumentException(fields[1]);
+                        };
+                        libraries.add(new Library(new Group(fields[2]), new Artifact(fields[3]), new Variant(fields[4])));
+                        coordinates.add(coordinate);
+                        manifests.add(new ArrayList<>());
+                    }
+                    case "dependency" -> {
+                        var parent = (MavenCoordinate) coordinates.get(coordinates.size() - 1);
+                        var group = new Group(fields[1]);
+                        var artifact = new Artifact(fields[2]);
+                        var classifier = fields[5].isEmpty() ? Classifier.EMPTY : new Classifier(fields[5]);
+                        var exclusions = new ArrayList<Exclusion>();
+                        for (int i = 6; i < fields.length; i++) {
+                            var parts = fields[i].split(":", 2);
+                            exclusions.add(new Exclusion(parts[0], parts[1]));
+                        }
+                        manifests.get(manifests.size() - 1).add(new Dependency(
+                                new Library(group, artifact, new Variant(fields[3])),
+                                childCoordinate(parent, group, artifact, Version.of(fields[4]), classifier),
+                                Exclusions.of(exclusions)
+                        ));
+                    }
+                    case "selected" -> {
+                    }
+                    default -> throw new IllegalArgumentException(fields[0]);
+                }
+            }
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+
+        var result = new HashMap<DependencyId, List<Entry>>();
+        for (int m = 0; m < manifests.size(); m++) {
+            var library = libraries.get(m);
+            var coordinate = coordinates.get(m);
+            if (find(result, library, coordinate) == null) {
+                result.computeIfAbsent(new DependencyId(library, coordinate.id()), __ -> new ArrayList<>())
+                        .add(new Entry(library, coordinate, Manifest.of(manifests.get(m))));
+            }
+        }
+        return Optional.of(result);
+    }
+}
@@ -8,33 +8,40 @@ import dev.mccue.resolve.maven.MavenCoordinateId;
 import dev.mccue.resolve.util.LL;
 import org.jspecify.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public final class Resolve {
+    private static final System.Logger LOG =
+            System.getLogger(Resolve.class.getName());
+
     private final LinkedHashMap<Library, Dependency> dependencies;
     private final LinkedHashMap<Library, Dependency> dependencyOverrides;
-    ExecutorService executorService;
+    private @Nullable ExecutorService executorService;
     Cache cache;
+    private @Nullable Path lockfile;
 
     public Resolve() {
         this.dependencies = new LinkedHashMap<>();
         this.dependencyOverrides = new LinkedHashMap<>();
         this.cache = Cache.standard();
-        var count = new AtomicInteger();
-        this.executorService = Executors.newFixedThreadPool(8, (r) -> {
-            var t = new Thread(r);
-            t.setName("resolve-" + count.getAndIncrement());
-            t.setDaemon(true);
-            return t;
-        });
+        this.lockfile = null;
+        this.executorService = null;
     }
 
     public Resolve addDependency(Dependency dependency) {
@@ -67,18 +74,119 @@ public final class Resolve {
         return this;
     }
 
-    public Resolve withExecutorService(ExecutorService executorService) {
+    /**
+     * Sets the executor manifests are fetched on.
+     *
+     * <p>
+     *     By default each call to {@link #run()} uses a fresh virtual thread per task and
+     *     shuts it down once resolution finishes. An executor given here is never shut down.
+     * </p>
+     *
+     * @param executorService The executor to use, or null to go back to the default.
+     * @return This, for chaining.
+     */
+    public Resolve withExecutorService(@Nullable ExecutorService executorService) {
         this.executorService = executorService;
         return this;
     }
 
+    static ExecutorService newVirtualThreadExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual()
+                        .name(name + "-", 0)
+                        .factory()
+        );
+    }
+
+    /**
+     * Keeps the manifests consulted during resolution in the given file.
+     *
+     * <p>
+     *     If the file was written for the same dependencies and overrides, the resolution
+     *     is replayed from it without fetching any manifests. Otherwise, or if the replay turns
+     *     out to need a manifest the file doesn't have, the file is rewritten afterward.
+     * </p>
+     *
+     * @param lockfile Where to read and write the lockfile.
+     * @return This, for chaining.
+     */
+    public Resolve withLockfile(@Nullable Path lockfile) {
+        this.lockfile = lockfile;
+        return this;
+    }
+
     public Result run() {
-        return Result.expandDependencies(
+        return run(__ -> {});
+    }
+
+    /**
+     * @param onIncluded Told about each dependency as soon as it is included in the resolution,
+     *                   which might be before it is later superseded by a newer version.
+     */
+    Result run(Consumer<? super Dependency> onIncluded) {
+        if (executorService != null) {
+            return run(executorService, onIncluded);
+        }
+
+        try (var executorService = newVirtualThreadExecutor("resolve")) {
+            return run(executorService, onIncluded);
+        }
+    }
+
+    private Result run(ExecutorService executorService, Consumer<? super Dependency> onIncluded) {
+        if (lockfile == null) {
+            return Result.expandDependencies(
+                    dependencies,
+                    dependencyOverrides,
+                    cache,
+                    executorService,
+                    null,
+                    onIncluded
+            );
+        }
+
+        String existing = null;
+        Map<DependencyId, List<Lockfile.Entry>> locked = null;
+        try {
+            existing = Files.readString(lockfile);
+            locked = Lockfile.parse(existing, dependencies, dependencyOverrides).orElse(null);
+        } catch (NoSuchFileException e) {
+            LOG.log(Level.TRACE, () -> "No lockfile yet. lockfile=" + lockfile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (locked == null) {
+            LOG.log(Level.TRACE, () -> "Lockfile does not match inputs. lockfile=" + lockfile);
+        }
+
+        var result = Result.expandDependencies(
                 dependencies,
                 dependencyOverrides,
                 cache,
-                executorService
+                executorService,
+                locked,
+                onIncluded
         );
+
+        String updated;
+        try {
+            updated = result.renderLockfile();
+        } catch (IllegalStateException e) {
+            LOG.log(Level.TRACE, () -> "Resolution cannot be written to a lockfile. lockfile=" + lockfile, e);
+            return result;
+        }
+
+        if (!updated.equals(existing)) {
+            LOG.log(Level.TRACE, () -> "Writing lockfile. lockfile=" + lockfile);
+            try {
+                Lockfile.write(lockfile, updated);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return result;
     }
 
     public Fetch fetch() {
@@ -89,17 +197,34 @@ public final class Resolve {
         private final VersionMap versionMap;
         private final Trace trace;
         private final MutableGraph<Library> libraryGraph;
-
-        private Result(VersionMap versionMap, Trace trace, MutableGraph<Library> libraryGraph) {
+        private final Map<Library, Dependency> dependencies;
+        private final Map<Library, Dependency> dependencyOverrides;
+        private final List<Lockfile.Entry> expanded;
+
+        private Result(
+                VersionMap versionMap,
+                Trace trace,
+                MutableGraph<Library> libraryGraph,
+                Map<Library, Dependency> dependencies,
+                Map<Library, Dependency> dependencyOverrides,
+                List<Lockfile.Entry> expanded
+        ) {
             this.versionMap = versionMap;
             this.trace = trace;
             this.libraryGraph = libraryGraph;
+            this.dependencies = Collections.unmodifiableMap(new LinkedHashMap<>(dependencies));
+            this.dependencyOverrides = Collections.unmodifiableMap(new LinkedHashMap<>(dependencyOverrides));
+            this.expanded = List.copyOf(expanded);
         }
 
         VersionMap versionMap() {
             return versionMap;
         }
 
+        Trace trace() {
+            return trace;
+        }
+
         public Map<Usage, Set<Library>> librariesForUsage(
                 Map<Library, Set<Usage>> knownUsages,
                 @Nullable Usage defaultUsage
@@ -172,121 +297,332 @@ public final class Resolve {
         }
 
         /**
+         * <p>
+         *     Dependencies are expanded breadth first, one "wave" (level of the tree) at a time.
+         *     An inclusion decision only depends on the decisions made before it, never on
+         *     the contents of any manifest, so every decision in a wave is made before blocking
+         *     on any downloads. Children are then collected in the same order the queue would
+         *     have seen them, which keeps the {@link VersionMap} and {@link Trace} identical to a
+         *     one-at-a-time traversal.
+         * </p>
+         *
+         * <p>
+         *     Manifests for the next wave start being fetched as soon as the manifest of their
+         *     parent is available, so one slow manifest doesn't hold up the rest of its wave.
+         *     Each coordinate has its manifest fetched at most once per resolution, and
+         *     dependencies that can only ever be decided as {@link InclusionDecision#USE_TOP}
+         *     or {@link InclusionDecision#EXCLUDED} are never prefetched. Prefetches which are
+         *     still running once resolution is done are cancelled.
+         * </p>
+         *
          * @param initialDependencies  each dependency is defined as a lib (symbol) and coordinate (maven, git, local, etc.)
          * @param overrideDependencies a map of lib to coord to use if lib is found
          * @param cache                cache for files.
+         * @param locked               manifests read from a lockfile, used instead of fetching. When
+         *                             given, nothing is prefetched.
+         * @param onIncluded           called with each dependency whose inclusion decision is
+         *                             {@link InclusionDecision#included()}, as soon as that decision is made.
          */
         static Result expandDependencies(
                 Map<Library, Dependency> initialDependencies,
                 Map<Library, Dependency> overrideDependencies,
                 Cache cache,
-                ExecutorService executorService
+                ExecutorService executorService,
+                @Nullable Map<DependencyId, List<Lockfile.Entry>> locked,
+                Consumer<? super Dependency> onIncluded
         ) {
             MutableGraph<Library> libraryGraph = GraphBuilder.directed()
                     .allowsSelfLoops(true)
                     .build();
             var cut = new HashMap<DependencyId, Exclusions>();
+            var manifests = new Manifests(cache, executorService, locked);
+            var expanded = new ArrayList<Lockfile.Entry>();
+            // Coordinates are only compared among those with the same id, as in Manifests.
+            var expandedCoordinates = new HashMap<DependencyId, List<Coordinate>>();
             record QueueEntry(
                     Dependency dependency,
-                    LL<DependencyId> path,
-                    Future<Manifest> manifestPrefetch
+                    LL<DependencyId> path
             ) {
             }
 
-            Queue<QueueEntry> q = new ArrayDeque<>();
+            record Expansion(
+                    Library library,
+                    Coordinate coordinate,
+                    CompletableFuture<Manifest> manifest,
+                    CompletableFuture<List<QueueEntry>> children
+            ) {
+            }
+
+            // Every initial dependency becomes a top dep, so any later occurrence
+            // of one of these libraries is either USE_TOP or EXCLUDED.
+            var topLibraries = Set.copyOf(initialDependencies.keySet());
+
+            var initialWave = new ArrayList<QueueEntry>();
             initialDependencies.forEach((library, dependency) -> {
-                q.add(
+                initialWave.add(
                         new QueueEntry(
                                 new Dependency(library, dependency.coordinate(), dependency.exclusions()),
-                                new LL.Nil<>(),
-                                executorService.submit(() -> dependency.coordinate().getManifest(cache))
+                                new LL.Nil<>()
                         )
                 );
+                manifests.prefetch(library, dependency.coordinate());
             });
 
 
             var versionMap = new VersionMap();
             var trace = new Trace();
 
-            while (!q.isEmpty()) {
-                var queueEntry = q.poll();
-
-                var library = queueEntry.dependency.library();
-
-                var dependency = overrideDependencies.getOrDefault(
-                        library,
-                        queueEntry.dependency
-                );
-
-                var coordinate = dependency.coordinate();
-                var coordinateId = coordinate.id();
+            try {
+                List<QueueEntry> wave = initialWave;
+                while (!wave.isEmpty()) {
+                    var expansions = new ArrayList<Expansion>();
+                    for (var queueEntry : wave) {
+                        var library = queueEntry.dependency.library();
+
+                        var dependency = overrideDependencies.getOrDefault(
+                                library,
+                                queueEntry.dependency
+                        );
+
+                        var coordinate = dependency.coordinate();
+                        var coordinateId = coordinate.id();
+
+                        var decision = versionMap.includeCoordinate(
+                                dependency,
+                                coordinateId,
+                                queueEntry.path
+                        );
+
+                        trace.add(new Trace.Entry(
+                                queueEntry.path.reverse().toJavaList(),
+                                dependency.library(),
+                                dependency.coordinate().id(),
+                                decision
+                        ));
 
-                var decision = versionMap.includeCoordinate(
-                        dependency,
-                        coordinateId,
-                        queueEntry.path
-                );
+                        if (decision.included()) {
+                            onIncluded.accept(dependency);
+                        }
+
+                        var exclusionsUpdate = updateExclusions(
+                                library,
+                                decision,
+                                coordinateId,
+                                cut,
+                                dependency.exclusions()
+                        );
+
+                        var exclusions = exclusionsUpdate.newExclusions;
+
+                        if (decision.included() || exclusionsUpdate.wasUpdated) {
+                            var childPath = queueEntry.path.prepend(new DependencyId(queueEntry.dependency));
+                            // The manifest is the one for the coordinate this dependency was found with,
+                            // even when an override replaced it.
+                            var manifestCoordinate = queueEntry.dependency.coordinate();
+                            var manifest = manifests.get(library, manifestCoordinate);
+                            expansions.add(new Expansion(
+                                    library,
+                                    manifestCoordinate,
+                                    manifest,
+                                    manifest.thenApply(coordinateManifest -> coordinateManifest
+                                            .dependencies()
+                                            .stream()
+                                            .filter(dep -> exclusions.shouldInclude(dep.library()))
+                                            .map(dep -> dep
+                                                    .withExclusions(dep.exclusions().join(exclusions)))
+                                            .map(manifestDep -> {
+                                                var childLibrary = manifestDep.library();
+                                                var childDependency = overrideDependencies.getOrDefault(
+                                                        childLibrary,
+                                                        manifestDep
+                                                );
+                                                if (!topLibraries.contains(childLibrary)
+                                                        && childDependency.exclusions().shouldInclude(childLibrary)) {
+                                                    manifests.prefetch(childLibrary, manifestDep.coordinate());
+                                                }
+                                                return new QueueEntry(manifestDep, childPath);
+                                            })
+                                            .toList())
+                            ));
+                        }
+                    }
 
-                trace.add(new Trace.Entry(
-                        queueEntry.path.reverse().toJavaList(),
-                        dependency.library(),
-                        dependency.coordinate().id(),
-                        decision
-                ));
-
-                var exclusionsUpdate = updateExclusions(
-                        library,
-                        decision,
-                        coordinateId,
-                        cut,
-                        dependency.exclusions()
-                );
+                    wave = new ArrayList<>();
+                    for (var expansion : expansions) {
+                        List<QueueEntry> children;
+                        try {
+                            children = expansion.children.get();
+                        } catch (ExecutionException e) {
+                            throw new RuntimeException(e.getCause());
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+
+                        var sameId = expandedCoordinates.computeIfAbsent(
+                                new DependencyId(expansion.library, expansion.coordinate.id()),
+                                __ -> new ArrayList<>()
+                        );
+                        if (sameId.stream().noneMatch(expansion.coordinate::equals)) {
+                            sameId.add(expansion.coordinate);
+                            expanded.add(new Lockfile.Entry(
+                                    expansion.library,
+                                    expansion.coordinate,
+                                    expansion.manifest.join()
+                            ));
+                        }
+
+                        for (var child : children) {
+                            libraryGraph.putEdge(expansion.library, child.dependency.library());
+                            wave.add(child);
+                        }
+                    }
+                }
+            } finally {
+                // Whatever is still being fetched was only prefetched and turned out not to be needed,
+                // or resolution failed. Either way nothing will ever look at it.
+                manifests.cancel();
+            }
 
-                var exclusions = exclusionsUpdate.newExclusions;
+            return new Result(
+                    versionMap,
+                    trace,
+                    libraryGraph,
+                    initialDependencies,
+                    overrideDependencies,
+                    expanded
+            );
+        }
 
+        /**
+         * The manifests fetched over the course of a single resolution.
+         *
+         * <p>
+         *     These are keyed by the whole coordinate, not just its {@link CoordinateId}, since
+         *     things like the repositories a coordinate looks in change what its manifest is.
+         *     A library that shows up in many manifests with the same coordinate only has its
+         *     own manifest fetched once.
+         * </p>
+         */
+        private static final class Manifests {
+            private record Fetched(
+                    Coordinate coordinate,
+                    CompletableFuture<Manifest> manifest,
+                    @Nullable Future<?> task
+            ) {}
+
+            // Coordinates are only compared among those with the same id, since hashing
+            // one can mean hashing everything reachable from its manifest.
+            private final ConcurrentHashMap<DependencyId, List<Fetched>> futures;
+            private final Cache cache;
+            private final ExecutorService executorService;
+            private final @Nullable Map<DependencyId, List<Lockfile.Entry>> locked;
+            private volatile boolean cancelled;
+
+            Manifests(
+                    Cache cache,
+                    ExecutorService executorService,
+                    @Nullable Map<DependencyId, List<Lockfile.Entry>> locked
+            ) {
+                this.futures = new ConcurrentHashMap<>();
+                this.cache = cache;
+                this.executorService = executorService;
+                this.locked = locked;
+            }
 
-                if (decision.included() || exclusionsUpdate.wasUpdated) {
-                    Manifest coordinateManifest;
-                    try {
-                        coordinateManifest = queueEntry.manifestPrefetch.get();
-                    } catch (ExecutionException e) {
-                        throw new RuntimeException(e.getCause());
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
+            CompletableFuture<Manifest> get(Library library, Coordinate coordinate) {
+                var id = new DependencyId(library, coordinate.id());
+                var fetched = futures.computeIfAbsent(id, __ -> new ArrayList<>());
+                synchronized (fetched) {
+                    for (var existing : fetched) {
+                        if (existing.coordinate().equals(coordinate)) {
+                            return existing.manifest();
+                        }
                     }
 
+                    var lockedEntry = locked == null ? null : Lockfile.find(locked, library, coordinate);
+                    if (lockedEntry != null) {
+                        var manifest = CompletableFuture.completedFuture(lockedEntry.manifest());
+                        fetched.add(new Fetched(coordinate, manifest, null));
+                        return manifest;
+                    }
 
-                    var afterExclusions = coordinateManifest
-                            .dependencies()
-                            .stream()
-                            .filter(dep -> exclusions.shouldInclude(dep.library()))
-                            .map(dep -> dep
-                                    .withExclusions(dep.exclusions().join(exclusions)))
-                            .toList();
-
-                    for (var manifestDep : afterExclusions) {
-                        libraryGraph.putEdge(library, manifestDep.library());
-                        q.add(new QueueEntry(
-                                manifestDep,
-                                queueEntry.path.prepend(new DependencyId(queueEntry.dependency)),
-                                executorService.submit(() -> manifestDep.coordinate().getManifest(cache))
-                        ));
+                    var manifest = new CompletableFuture<Manifest>();
+                    if (cancelled) {
+                        manifest.cancel(false);
+                        return manifest;
                     }
+                    // Submitted instead of using supplyAsync so that the fetch can be interrupted.
+                    var task = executorService.submit(() -> {
+                        try {
+                            manifest.complete(coordinate.getManifest(cache));
+                        } catch (Throwable t) {
+                            manifest.completeExceptionally(t);
+                        }
+                    });
+                    fetched.add(new Fetched(coordinate, manifest, task));
+                    return manifest;
                 }
             }
 
+            /**
+             * Starts fetching a manifest that will probably be needed. When replaying a lockfile
+             * anything that will be needed is already known, so this does nothing.
+             */
+            void prefetch(Library library, Coordinate coordinate) {
+                if (locked == null) {
+                    get(library, coordinate);
+                }
+            }
 
-            return new Result(
-                    versionMap,
-                    trace,
-                    libraryGraph
-            );
+            /**
+             * Interrupts every fetch which hasn't finished and starts no more, so that closing
+             * the executor doesn't wait on manifests nobody is going to use.
+             */
+            void cancel() {
+                cancelled = true;
+                for (var fetched : futures.values()) {
+                    synchronized (fetched) {
+                        for (var existing : fetched) {
+                            if (existing.task() != null && !existing.manifest().isDone()) {
+                                LOG.log(Level.TRACE, () -> "Cancelling unneeded manifest fetch. coordinate="
+                                        + existing.coordinate().id());
+                                existing.task().cancel(true);
+                                existing.manifest().cancel(false);
+                            }
+                        }
+                    }
+                }
+            }
         }
 
         public List<Dependency> selectedDependencies() {
             return versionMap.selectedDependencies();
         }
 
+        String renderLockfile() {
+            return Lockfile.render(dependencies, dependencyOverrides, expanded, selectedDependencies());
+        }
+
+        /**
+         * Writes the manifests consulted during this resolution to a lockfile.
+         *
+         * <p>
+         *     A {@link Resolve} given this file with {@link Resolve#withLockfile(Path)} will
+         *     come to this same result without fetching any manifests, as long as its dependencies
+         *     and overrides are the same.
+         * </p>
+         *
+         * @param lockfile Where to write the lockfile.
+         * @throws IllegalStateException If a manifest included a kind of coordinate that can't be written.
+         */
+        public void writeLockfile(Path lockfile) {
+            try {
+                Lockfile.write(lockfile, renderLockfile());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         public void printTree(PrintWriter out, List<Library> hideLibraries) {
             var keyedEntries = new HashMap<List<DependencyId>, ArrayList<Trace.Entry>>();
             for (var entry : trace) {
@@ -2,54 +2,170 @@ package dev.mccue.resolve;
 
 import dev.mccue.resolve.doc.Coursier;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 
 import java.io.*;
 import java.lang.System.Logger.Level;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 @NullMarked
 @Coursier("""
         https://github.com/coursier/coursier/blob/929301cd078b6ba13ea78d5065cb07130576839a/modules/paths/src/main/java/coursier/paths/CachePath.java#L117
         """)
-final class StandardCache implements Cache {
+public final class StandardCache implements Cache {
     private static final System.Logger LOG = System.getLogger(StandardCache.class.getName());
 
-    // Trying to limit the calls to String.intern via this map (https://shipilev.net/jvm/anatomy-quarks/10-string-intern/)
-    private static final ConcurrentHashMap<String, String> INTERNED_STRINGS = new ConcurrentHashMap<>();
+    // One lock for each file being worked on, so downloads of different files never wait
+    // on each other. These are static so that every StandardCache in the JVM pointing at the
+    // same directory agrees on which lock guards which file, and are removed once nobody needs them.
+    private static final ConcurrentHashMap<Path, KeyLock> KEY_LOCKS = new ConcurrentHashMap<>();
 
-    // Even if two versions of that code end up in the same JVM (say one via a shaded coursier, the other via a
-    // non-shaded coursier), they will rely on the exact same object for locking here (via String.intern), so that the
-    // locks are actually JVM-wide.
-    private static Object lockFor(Path cachePath) {
-        String key = "jresolve-jvm-lock-" + cachePath.toString();
-        Object lock0 = INTERNED_STRINGS.get(key);
-        if (lock0 == null) {
-            String internedKey = key.intern();
-            INTERNED_STRINGS.putIfAbsent(internedKey, internedKey);
-            lock0 = internedKey;
+    private static final Duration STALE_TEMP_FILE_AGE = Duration.ofHours(1);
+
+    // Every directory holding files gets one of these, touched whenever one of
+    // its files is used. Eviction goes by the newest modification time in a directory,
+    // so this keeps the files in it from looking idle.
+    private static final String LAST_USED = ".last-used";
+    private static final Duration LAST_USED_INTERVAL = Duration.ofMinutes(10);
+    private static final ConcurrentHashMap<Path, Long> LAST_MARKED = new ConcurrentHashMap<>();
+
+    // Past this many, directories marked longer ago than LAST_USED_INTERVAL are forgotten,
+    // since those would be marked again anyway. If that isn't enough, everything is.
+    private static final int MAXIMUM_LAST_MARKED = 4096;
+
+    // Comfortably more than LAST_USED_INTERVAL, so anything used by a running
+    // process is never considered idle.
+    private static final Duration MINIMUM_IDLE = Duration.ofHours(1);
+
+    private static final ConcurrentHashMap<Path, ReentrantLock> STRUCTURE_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * A lock on a single file in the cache, held on behalf of one thread.
+     */
+    static final class KeyLock {
+        private final Path filePath;
+        private final ReentrantLock lock;
+
+        // How many threads hold or are waiting on the lock. Only changed
+        // while computing the entry for it in KEY_LOCKS.
+        private int users;
+
+        private KeyLock(Path filePath) {
+            this.filePath = filePath;
+            this.lock = new ReentrantLock();
+            this.users = 0;
+        }
+
+        void release() {
+            lock.unlock();
+            KEY_LOCKS.computeIfPresent(filePath, (__, keyLock) -> --keyLock.users == 0 ? null : keyLock);
         }
-        return lock0;
     }
+
+    /**
+     * Waits until no other thread in the JVM is working on the file, then holds it until
+     * {@link KeyLock#release()}.
+     */
+    static KeyLock lockKey(Path filePath) {
+        var keyLock = KEY_LOCKS.compute(filePath.toAbsolutePath().normalize(), (path, existing) -> {
+            var lock = existing == null ? new KeyLock(path) : existing;
+            lock.users++;
+            return lock;
+        });
+        keyLock.lock.lock();
+        return keyLock;
+    }
+
     private final Path root;
+    private final @Nullable CacheIndex index;
+
+    StandardCache(Path root) {
+        this(root, null);
+    }
 
-    public StandardCache(Path root) {
+    private StandardCache(Path root, @Nullable CacheIndex index) {
         Objects.requireNonNull(root);
         this.root = root;
+        this.index = index;
     }
 
-    public StandardCache() {
+    StandardCache() {
         this(Path.of(System.getProperty("user.home"), ".jresolve", "cache"));
     }
 
+    /**
+     * Like {@link Cache#standard(Path)}, but gives access to things specific to this kind of cache,
+     * like {@link #evict(long)}.
+     *
+     * @param root The directory to keep files in.
+     * @return A cache which keeps files in the given directory.
+     */
+    public static StandardCache at(Path root) {
+        return new StandardCache(root);
+    }
+
+    /**
+     * @return The same cache as {@link Cache#standard()}.
+     */
+    public static StandardCache atDefaultRoot() {
+        return new StandardCache();
+    }
+
+    /**
+     * Whether to keep an index of the files in the cache in a single file at its root.
+     *
+     * <p>
+     *     Without one, checking whether a file is cached means asking the file system about a path
+     *     many directories deep, which on a network file system can take a while. With one, files fetched
+     *     before are found without looking at the file system at all. The index is built from what is
+     *     in the cache the first time it is used and is shared by every process using the cache.
+     * </p>
+     *
+     * <p>
+     *     Files which are removed from the cache by hand should have the {@code .index} file at the root
+     *     removed with them.
+     * </p>
+     *
+     * @param indexed Whether to use an index.
+     * @return A cache for the same directory, using an index or not.
+     */
+    public StandardCache withIndex(boolean indexed) {
+        return new StandardCache(root, indexed ? CacheIndex.forRoot(root) : null);
+    }
+
+    /**
+     * @return What the index records about the file for the key, or null if it is not indexed.
+     */
+    CacheIndex.@Nullable Entry indexed(CacheKey key) {
+        return index == null ? null : index.get(key);
+    }
+
     private Path keyPath(CacheKey key) {
         return Path.of(
                 root.toString(),
@@ -57,6 +173,25 @@ final class StandardCache implements Cache {
         );
     }
 
+    /**
+     * Checks the index before the file system, and adds anything only found on the file system to the index.
+     */
+    private boolean isPresent(CacheKey key, Path filePath) {
+        if (index == null) {
+            return Files.exists(filePath);
+        }
+        if (index.get(key) != null) {
+            return true;
+        }
+        try {
+            var attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            index.present(key, attributes.size(), null);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof StandardCache standardCache
@@ -76,135 +211,459 @@ final class StandardCache implements Cache {
     @Override
     public Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data) {
         var filePath = keyPath(key);
-        synchronized (lockFor(filePath)) {
-            LOG.log(Level.TRACE, () -> "About to check if file exists. filePath=" + filePath);
-            boolean noFile = !Files.exists(filePath);
-            if (noFile) {
-                LOG.log(Level.TRACE, () -> "File does not exist. filePath=" + filePath);
-                try {
-                    LOG.log(Level.TRACE, () -> "Acquiring structural lock. root=" + root);
-
-                    withStructureLock(this.root, () -> {
-                        try {
-                            LOG.log(Level.TRACE, () -> "Creating parent directories for file. filePath=" + filePath);
-                            Files.createDirectories(filePath.getParent());
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
-                    });
-                    LOG.log(Level.TRACE, () -> "Released structural lock. root=" + root);
-
-                    LOG.log(Level.TRACE, () -> "About to get data from input source. data=" + data);
-
-                    try (var inputStream = data.get();
-                         var outputStream = Files.newOutputStream(
-                                 filePath,
-                                 StandardOpenOption.CREATE_NEW
-                         )) {
-                        LOG.log(Level.TRACE, () -> "Transferring contents to file. filePath=" + filePath);
-                        inputStream.transferTo(outputStream);
-                        return filePath;
-                    } catch (FileAlreadyExistsException e) {
-                        LOG.log(Level.TRACE, () -> "File already exists in cache. filePath=" + filePath);
-                        return filePath;
+
+        // Files only ever show up at their final path once fully written,
+        // so if one is there it can be used without taking any lock.
+        LOG.log(Level.TRACE, () -> "About to check if file exists. filePath=" + filePath);
+        if (isPresent(key, filePath)) {
+            LOG.log(Level.TRACE, () -> "File exists. filePath=" + filePath);
+            markUsed(filePath);
+            return filePath;
+        }
+
+        var lock = lockKey(filePath);
+        try {
+            // Someone else might have been downloading it while we waited.
+            if (isPresent(key, filePath)) {
+                LOG.log(Level.TRACE, () -> "File was added while waiting. filePath=" + filePath);
+                markUsed(filePath);
+                return filePath;
+            }
+
+            LOG.log(Level.TRACE, () -> "File does not exist. filePath=" + filePath);
+            inParentDirectory(filePath, () -> withEntryLock(filePath, () -> {
+                // Another process might have downloaded it while we waited.
+                if (isPresent(key, filePath)) {
+                    LOG.log(Level.TRACE, () -> "File was added by another process. filePath=" + filePath);
+                    return false;
+                }
+
+                deleteStaleTempFiles(filePath);
+                publish(key, filePath, data);
+                return true;
+            }));
+            markUsed(filePath);
+            return filePath;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Runs the action while holding a lock on a file next to the entry, so that only one
+     * process at a time works on it. The caller must already hold {@link #lockKey(Path)}, since
+     * the lock is held on behalf of the whole JVM.
+     *
+     * <p>
+     *     If the action reports that it published the entry, the lock file is removed. Anyone still
+     *     waiting on it will see the entry once they get the lock and anyone who comes later will
+     *     see it before ever looking for the lock. If the action fails the lock file is left in place,
+     *     since otherwise a waiting process and a new one could both end up downloading.
+     * </p>
+     */
+    private static void withEntryLock(Path filePath, BooleanSupplier published) {
+        var lockFile = filePath.resolveSibling("." + filePath.getFileName() + ".lock");
+        try (var channel = FileChannel.open(
+                lockFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE
+        )) {
+            LOG.log(Level.TRACE, () -> "Acquiring entry lock. lockFile=" + lockFile);
+            FileLock fileLock = channel.lock();
+            try {
+                if (published.getAsBoolean()) {
+                    try {
+                        Files.deleteIfExists(lockFile);
+                    } catch (IOException e) {
+                        // Some platforms won't delete a file that is open. It will be reused next time.
+                        LOG.log(Level.TRACE, () -> "Could not delete entry lock. lockFile=" + lockFile, e);
                     }
-                } catch (IOException e) {
-                    LOG.log(Level.TRACE, () -> "Error getting data. filePath=" + filePath, e);
-                    throw new UncheckedIOException(e);
                 }
+            } finally {
+                fileLock.release();
+                LOG.log(Level.TRACE, () -> "Released entry lock. lockFile=" + lockFile);
             }
-            LOG.log(Level.TRACE, () -> "File exists. filePath=" + filePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
+    @Override
+    public Path fetch(CacheKey key, Supplier<InputStream> data) {
+        var filePath = keyPath(key);
+        var lock = lockKey(filePath);
+        try {
+            inParentDirectory(filePath, () -> publish(key, filePath, data));
+            markUsed(filePath);
             return filePath;
+        } finally {
+            lock.release();
         }
+    }
 
+    /**
+     * Creates the directory for the file and runs the action. If the directory is evicted
+     * while that happens the action is run once more, in a freshly created directory.
+     */
+    private void inParentDirectory(Path filePath, Runnable action) {
+        createParentDirectories(filePath);
+        try {
+            action.run();
+        } catch (UncheckedIOException e) {
+            if (!(e.getCause() instanceof NoSuchFileException) || Files.isDirectory(filePath.getParent())) {
+                throw e;
+            }
+            LOG.log(Level.TRACE, () -> "Directory was removed while writing, trying again. filePath=" + filePath, e);
+            createParentDirectories(filePath);
+            action.run();
+        }
     }
 
-    @Coursier("https://github.com/coursier/coursier/blob/929301cd078b6ba13ea78d5065cb07130576839a/modules/paths/src/main/java/coursier/paths/CachePath.java#L176")
-    static void withStructureLock(Path cache, Runnable runnable) {
+    /**
+     * Records that a file in the same directory as the given one was used. This is done at most
+     * once every {@link #LAST_USED_INTERVAL} per directory, so cache hits stay cheap.
+     */
+    private static void markUsed(Path filePath) {
+        var directory = filePath.getParent();
+        var now = System.nanoTime();
+        var lastMarked = LAST_MARKED.get(directory);
+        if (lastMarked != null && now - lastMarked < LAST_USED_INTERVAL.toNanos()) {
+            return;
+        }
+        LAST_MARKED.put(directory, now);
+        if (LAST_MARKED.size() > MAXIMUM_LAST_MARKED) {
+            LAST_MARKED.values().removeIf(marked -> now - marked >= LAST_USED_INTERVAL.toNanos());
+            if (LAST_MARKED.size() > MAXIMUM_LAST_MARKED) {
+                LAST_MARKED.clear();
+            }
+        }
+
+        var marker = directory.resolve(LAST_USED);
         try {
-            synchronized (lockFor(cache)) {
-                Path lockFile = cache.resolve(".structure.lock");
-                Files.createDirectories(lockFile.getParent());
-                try(FileChannel channel = FileChannel.open(
-                        lockFile,
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.WRITE
-                )) {
-                    FileLock lock = null;
-                    try {
-                        lock = channel.lock();
+            try {
+                Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+            } catch (NoSuchFileException e) {
+                Files.newOutputStream(marker, StandardOpenOption.CREATE).close();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Could not mark directory as used. directory=" + directory, e);
+        }
+    }
 
-                        try {
-                            runnable.run();
-                        }
-                        finally {
-                            lock.release();
-                            lock = null;
+    /**
+     * What was removed by {@link #evict(long, Collection)}.
+     * @param directories The number of directories removed.
+     * @param bytes The total size of the files in them.
+     */
+    public record Eviction(int directories, long bytes) {
+    }
+
+    /**
+     * Removes the least recently used files until the cache takes up no more than the given size.
+     *
+     * @see #evict(long, Collection)
+     */
+    public Eviction evict(long maximumBytes) {
+        return evict(maximumBytes, List.of());
+    }
+
+    /**
+     * Removes the least recently used files until the cache takes up no more than the given size.
+     *
+     * <p>
+     *     Files are removed a directory at a time, which for a maven repository means one version
+     *     of one artifact at a time. A directory is considered used as of the last time any file in it
+     *     was fetched by any process. Directories used in the last hour are never removed, so this can
+     *     run while resolutions are in progress and might stop short of the given size.
+     * </p>
+     *
+     * @param maximumBytes How big the cache should be afterward.
+     * @param keep Files to keep no matter how long ago they were used, like the libraries in a
+     *             {@link Fetch.Result} for a lockfile.
+     * @return What was removed.
+     */
+    public Eviction evict(long maximumBytes, Collection<Path> keep) {
+        record Usage(Path directory, long bytes, long lastUsed) {}
+
+        var keepDirectories = new HashSet<Path>();
+        for (var path : keep) {
+            keepDirectories.add(path.toAbsolutePath().normalize().getParent());
+        }
+
+        var usages = new ArrayList<Usage>();
+        long totalBytes = 0;
+        try (var directories = Files.walk(root)) {
+            for (var directory : directories.filter(Files::isDirectory).toList()) {
+                if (directory.equals(root)) {
+                    continue;
+                }
+                var usage = usage(directory);
+                if (usage.files() > 0) {
+                    usages.add(new Usage(directory, usage.bytes(), usage.lastUsed()));
+                    totalBytes += usage.bytes();
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new Eviction(0, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        usages.sort(Comparator.comparingLong(Usage::lastUsed));
+
+        var idleBefore = System.currentTimeMillis() - MINIMUM_IDLE.toMillis();
+        var evictedDirectories = 0;
+        var evictedBytes = 0L;
+        for (var usage : usages) {
+            if (totalBytes <= maximumBytes || usage.lastUsed() >= idleBefore) {
+                break;
+            }
+            if (keepDirectories.contains(usage.directory().toAbsolutePath().normalize())) {
+                continue;
+            }
+
+            var evicted = new AtomicBoolean(false);
+            var removed = new ArrayList<Path>();
+            withStructureLock(root, () -> {
+                try {
+                    // Something might have used it since we looked.
+                    if (usage(usage.directory()).lastUsed() != usage.lastUsed()) {
+                        return;
+                    }
+                    try (var files = Files.list(usage.directory())) {
+                        for (var file : files.filter(Files::isRegularFile).toList()) {
+                            if (Files.deleteIfExists(file)) {
+                                removed.add(file);
+                            }
                         }
                     }
-                    finally {
-                        if (lock != null) lock.release();
+                    LAST_MARKED.remove(usage.directory());
+                    evicted.set(true);
+
+                    var directory = usage.directory();
+                    while (!directory.equals(root) && isEmpty(directory)) {
+                        Files.deleteIfExists(directory);
+                        directory = directory.getParent();
                     }
-                } finally {
-                    // https://github.com/bowbahdoe/jresolve/issues/5
-                    Files.deleteIfExists(lockFile);
+                } catch (IOException e) {
+                    LOG.log(Level.TRACE, () -> "Could not evict directory. directory=" + usage.directory(), e);
+                }
+            });
+
+            // Only once the structure lock is released, since the index might need
+            // to be rebuilt and that takes the structure lock as well.
+            if (index != null) {
+                for (var file : removed) {
+                    index.removed(file);
+                }
+            }
+
+            if (evicted.get()) {
+                LOG.log(Level.TRACE, () -> "Evicted directory. directory=" + usage.directory());
+                totalBytes -= usage.bytes();
+                evictedDirectories++;
+                evictedBytes += usage.bytes();
+            }
+        }
+
+        // Another process could be relying on an index which still lists what was removed.
+        if (index == null && evictedDirectories > 0) {
+            CacheIndex.invalidate(root);
+        }
+
+        return new Eviction(evictedDirectories, evictedBytes);
+    }
+
+    private record DirectoryUsage(int files, long bytes, long lastUsed) {}
+
+    /**
+     * How many files are directly in the directory, how big they are and the newest modification
+     * time among them, counting the {@link #LAST_USED} marker along with any lock and temporary files.
+     */
+    private static DirectoryUsage usage(Path directory) {
+        var files = 0;
+        var bytes = 0L;
+        var lastUsed = Long.MIN_VALUE;
+        try (var entries = Files.list(directory)) {
+            for (var entry : entries.toList()) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attributes.isRegularFile()) {
+                    files++;
+                    bytes += attributes.size();
+                    lastUsed = Math.max(lastUsed, attributes.lastModifiedTime().toMillis());
                 }
             }
+        } catch (NoSuchFileException e) {
+            LOG.log(Level.TRACE, () -> "Directory was removed while looking at it. directory=" + directory);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        return new DirectoryUsage(files, bytes, lastUsed);
+    }
 
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (var entries = Files.list(directory)) {
+            return entries.findAny().isEmpty();
+        }
     }
 
-    @Override
-    public Path fetch(CacheKey key, Supplier<InputStream> data) {
-        var filePath = keyPath(key);
-        synchronized (lockFor(filePath)) {
-            LOG.log(Level.TRACE, () -> "About to check if file exists. filePath=" + filePath);
-            boolean noFile = !Files.exists(filePath);
-            if (noFile) {
-                LOG.log(Level.TRACE, () -> "File does not exist. filePath=" + filePath);
-
-                LOG.log(Level.TRACE, () -> "Acquiring structural lock. root=" + root);
-                withStructureLock(root, () -> {
-                    try {
-                        LOG.log(Level.TRACE, () -> "Creating parent directories for file. filePath=" + filePath);
-                        Files.createDirectories(filePath.getParent());
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
+    private void createParentDirectories(Path filePath) {
+        var parent = filePath.getParent();
+        if (Files.isDirectory(parent)) {
+            return;
+        }
+
+        LOG.log(Level.TRACE, () -> "Acquiring structural lock. root=" + root);
+        withStructureLock(root, () -> {
+            try {
+                LOG.log(Level.TRACE, () -> "Creating parent directories for file. filePath=" + filePath);
+                Files.createDirectories(parent);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        LOG.log(Level.TRACE, () -> "Released structural lock. root=" + root);
+    }
+
+    /**
+     * Removes temporary files left next to the file by a process that died partway through
+     * writing it. A file which is still being written has its modification time updated as data comes
+     * in, so only ones that haven't been touched in a while are removed.
+     */
+    private static void deleteStaleTempFiles(Path filePath) {
+        var prefix = "." + filePath.getFileName();
+        var cutoff = System.currentTimeMillis() - STALE_TEMP_FILE_AGE.toMillis();
+        try (var siblings = Files.newDirectoryStream(
+                filePath.getParent(),
+                sibling -> {
+                    var name = sibling.getFileName().toString();
+                    return name.startsWith(prefix) && name.endsWith(".part");
+                }
+        )) {
+            for (var sibling : siblings) {
+                try {
+                    if (Files.getLastModifiedTime(sibling).toMillis() < cutoff) {
+                        LOG.log(Level.TRACE, () -> "Deleting stale temporary file. tempFile=" + sibling);
+                        Files.deleteIfExists(sibling);
                     }
-                });
-                LOG.log(Level.TRACE, () -> "Released structural lock. root=" + root);
+                } catch (IOException e) {
+                    LOG.log(Level.TRACE, () -> "Could not delete stale temporary file. tempFile=" + sibling, e);
+                }
             }
-            else {
-                LOG.log(Level.TRACE, () -> "File exists. filePath=" + filePath);
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Could not look for stale temporary files. filePath=" + filePath, e);
+        }
+    }
+
+    /**
+     * Writes the data next to the file and then moves it into place, so nothing
+     * ever sees a partially written file at that path.
+     */
+    private void publish(CacheKey key, Path filePath, Supplier<InputStream> data) {
+        LOG.log(Level.TRACE, () -> "About to get data from input source. data=" + data);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(
+                    filePath.getParent(),
+                    "." + filePath.getFileName(),
+                    ".part"
+            );
+            var digest = index == null ? null : sha256();
+            long size;
+            try (var inputStream = digest == null ? data.get() : new DigestInputStream(data.get(), digest);
+                 var outputStream = Files.newOutputStream(tempFile, StandardOpenOption.WRITE)) {
+                var tempFilePath = tempFile;
+                LOG.log(Level.TRACE, () -> "Transferring contents to temporary file. tempFile=" + tempFilePath);
+                size = inputStream.transferTo(outputStream);
             }
 
-            LOG.log(Level.TRACE, () -> "About to get data from input source. data=" + data);
+            LOG.log(Level.TRACE, () -> "Moving temporary file into place. filePath=" + filePath);
             try {
-                try (
-                        var inputStream = data.get();
-                        var outputStream = Files.newOutputStream(
-                             filePath,
-                             StandardOpenOption.CREATE,
-                             StandardOpenOption.WRITE
-                        )
-                ) {
-                    LOG.log(Level.TRACE, () -> "Transferring contents to file. filePath=" + filePath);
-                    inputStream.transferTo(outputStream);
-                    return filePath;
+                Files.move(tempFile, filePath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+
+            if (index != null && digest != null) {
+                index.present(key, size, digest.digest());
+            }
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Error getting data. filePath=" + filePath, e);
+            throw new UncheckedIOException(e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    LOG.log(Level.TRACE, () -> "Could not delete temporary file. filePath=" + filePath, e);
+                }
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Coursier("https://github.com/coursier/coursier/blob/929301cd078b6ba13ea78d5065cb07130576839a/modules/paths/src/main/java/coursier/paths/CachePath.java#L176")
+    static void withStructureLock(Path cache, Runnable runnable) {
+        // A FileLock is held on behalf of the whole JVM, so threads have to take turns
+        // before asking for one.
+        var lock = STRUCTURE_LOCKS.computeIfAbsent(
+                cache.toAbsolutePath().normalize(),
+                __ -> new ReentrantLock()
+        );
+        lock.lock();
+        try {
+            Path lockFile = cache.resolve(".structure.lock");
+            Files.createDirectories(lockFile.getParent());
+            // The lock file is left in place. Deleting it would let a process that
+            // opened the old file and one that creates a new file both think they hold the lock.
+            try (FileChannel channel = FileChannel.open(
+                    lockFile,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE
+            )) {
+                FileLock fileLock = channel.lock();
+                try {
+                    runnable.run();
+                } finally {
+                    fileLock.release();
                 }
-            } catch (IOException e) {
-                LOG.log(Level.TRACE, () -> "Error getting data. filePath=" + filePath, e);
-                throw new UncheckedIOException(e);
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public boolean probablyContains(CacheKey key) {
+        if (index != null && index.get(key) != null) {
+            return true;
+        }
         var filePath = keyPath(key);
         return Files.exists(filePath);
     }
+
+    @Override
+    public Optional<Path> existing(CacheKey key) {
+        var filePath = keyPath(key);
+        if (!isPresent(key, filePath)) {
+            return Optional.empty();
+        }
+        markUsed(filePath);
+        return Optional.of(filePath);
+    }
 }
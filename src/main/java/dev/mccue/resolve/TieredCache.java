@@ -0,0 +1,272 @@
+package dev.mccue.resolve;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Cache} which keeps the contents of small files in memory in front of another cache.
+ *
+ * <p>
+ *     Only files read through {@link #fetchBytesIfAbsent(CacheKey, Supplier)} are held in memory,
+ *     and only if they are no bigger than {@link #maximumEntryBytes()}. Anything asked for as a {@link Path},
+ *     which is how jars are fetched, goes straight to the underlying cache.
+ * </p>
+ *
+ * <p>
+ *     Once the contents held add up to more than {@link #maximumBytes()}, the least recently
+ *     used files are dropped from memory until they fit again. They stay in the underlying cache.
+ * </p>
+ */
+@NullMarked
+public final class TieredCache implements Cache {
+    static final long DEFAULT_MAXIMUM_ENTRY_BYTES = 256 * 1024;
+
+    /**
+     * Told about what happens in the memory tier of a {@link TieredCache}.
+     *
+     * <p>
+     *     Methods are called on whichever thread is using the cache, after any locks are released.
+     * </p>
+     */
+    public interface Metrics {
+        Metrics NONE = new Metrics() {};
+
+        /**
+         * The contents of a file were found in memory.
+         */
+        default void hit(CacheKey key, long bytes) {}
+
+        /**
+         * The contents of a file had to be read from the underlying cache.
+         */
+        default void miss(CacheKey key) {}
+
+        /**
+         * The contents of a file were put in memory.
+         */
+        default void admitted(CacheKey key, long bytes, long residentBytes) {}
+
+        /**
+         * The contents of a file were dropped from memory, either to make room or because it was replaced.
+         */
+        default void removed(CacheKey key, long bytes, long residentBytes) {}
+    }
+
+    private final Cache disk;
+    private final long maximumBytes;
+    private final long maximumEntryBytes;
+    private final Metrics metrics;
+
+    private final LinkedHashMap<CacheKey, byte[]> entries;
+    private long residentBytes;
+
+    // Bumped whenever a file is replaced, so that contents read from
+    // disk before the replacement are not put in memory after it.
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    TieredCache(Cache disk, long maximumBytes, long maximumEntryBytes, Metrics metrics) {
+        if (maximumBytes < 0) {
+            throw new IllegalArgumentException("maximumBytes must not be negative: " + maximumBytes);
+        }
+        if (maximumEntryBytes < 0) {
+            throw new IllegalArgumentException("maximumEntryBytes must not be negative: " + maximumEntryBytes);
+        }
+        this.disk = Objects.requireNonNull(disk);
+        this.maximumBytes = maximumBytes;
+        this.maximumEntryBytes = maximumEntryBytes;
+        this.metrics = Objects.requireNonNull(metrics);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.residentBytes = 0;
+    }
+
+    /**
+     * @param maximumEntryBytes The size of the biggest file to hold in memory.
+     * @return A copy of this cache, with nothing in memory, using the given limit.
+     */
+    public TieredCache withMaximumEntryBytes(long maximumEntryBytes) {
+        return new TieredCache(disk, maximumBytes, maximumEntryBytes, metrics);
+    }
+
+    /**
+     * @param metrics What to tell about hits, misses and how much is held in memory.
+     * @return A copy of this cache, with nothing in memory, reporting to the given metrics.
+     */
+    public TieredCache withMetrics(Metrics metrics) {
+        return new TieredCache(disk, maximumBytes, maximumEntryBytes, metrics);
+    }
+
+    @Override
+    public Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data) {
+        return disk.fetchIfAbsent(key, data);
+    }
+
+    @Override
+    public byte[] fetchBytesIfAbsent(CacheKey key, Supplier<InputStream> data) {
+        byte[] bytes;
+        synchronized (entries) {
+            bytes = entries.get(key);
+        }
+        if (bytes != null) {
+            hits.increment();
+            metrics.hit(key, bytes.length);
+            return bytes.clone();
+        }
+
+        misses.increment();
+        metrics.miss(key);
+
+        var generation = this.generation.get();
+        var path = disk.fetchIfAbsent(key, data);
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (bytes.length <= maximumEntryBytes && bytes.length <= maximumBytes) {
+            admit(key, bytes, generation);
+        }
+        return bytes.clone();
+    }
+
+    private void admit(CacheKey key, byte[] bytes, long generation) {
+        record Removed(CacheKey key, long bytes, long residentBytes) {}
+        var removed = new ArrayList<Removed>();
+        long residentAfterAdmitting;
+        synchronized (entries) {
+            if (this.generation.get() != generation || entries.containsKey(key)) {
+                return;
+            }
+
+            entries.put(key, bytes);
+            residentBytes += bytes.length;
+            residentAfterAdmitting = residentBytes;
+
+            var iterator = entries.entrySet().iterator();
+            while (residentBytes > maximumBytes && iterator.hasNext()) {
+                var eldest = iterator.next();
+                iterator.remove();
+                residentBytes -= eldest.getValue().length;
+                evictions.increment();
+                removed.add(new Removed(eldest.getKey(), eldest.getValue().length, residentBytes));
+            }
+        }
+
+        metrics.admitted(key, bytes.length, residentAfterAdmitting);
+        for (var entry : removed) {
+            metrics.removed(entry.key(), entry.bytes(), entry.residentBytes());
+        }
+    }
+
+    @Override
+    public Path fetch(CacheKey key, Supplier<InputStream> data) {
+        byte[] bytes;
+        long residentAfterRemoving;
+        synchronized (entries) {
+            generation.incrementAndGet();
+            bytes = entries.remove(key);
+            if (bytes != null) {
+                residentBytes -= bytes.length;
+            }
+            residentAfterRemoving = residentBytes;
+        }
+        if (bytes != null) {
+            metrics.removed(key, bytes.length, residentAfterRemoving);
+        }
+
+        return disk.fetch(key, data);
+    }
+
+    @Override
+    public boolean probablyContains(CacheKey cacheKey) {
+        synchronized (entries) {
+            if (entries.containsKey(cacheKey)) {
+                return true;
+            }
+        }
+        return disk.probablyContains(cacheKey);
+    }
+
+    @Override
+    public Optional<Path> existing(CacheKey key) {
+        return disk.existing(key);
+    }
+
+    public long maximumBytes() {
+        return maximumBytes;
+    }
+
+    public long maximumEntryBytes() {
+        return maximumEntryBytes;
+    }
+
+    public long residentBytes() {
+        synchronized (entries) {
+            return residentBytes;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The fraction of reads through {@link #fetchBytesIfAbsent(CacheKey, Supplier)} served from memory.
+     */
+    public double hitRatio() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Drops everything held in memory. Nothing is removed from the underlying cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            residentBytes = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TieredCache[disk=" + disk +
+               ", maximumBytes=" + maximumBytes +
+               ", maximumEntryBytes=" + maximumEntryBytes +
+               ", residentBytes=" + residentBytes() +
+               ", hits=" + hits() +
+               ", misses=" + misses() +
+               ", evictions=" + evictions() + "]";
+    }
+}
@@ -3,25 +3,112 @@ package dev.mccue.resolve;
 import dev.mccue.resolve.doc.Coursier;
 import dev.mccue.resolve.doc.Maven;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Coursier("https://github.com/coursier/coursier/blob/8882fb4/modules/core/shared/src/main/scala/coursier/core/Version.scala")
 @Maven("https://github.com/apache/maven-resolver/blob/97dfd1c/maven-resolver-util/src/main/java/org/eclipse/aether/util/version/GenericVersion.java")
 public final class Version implements Comparable<Version> {
 
+    // The same few thousand version strings come up in every resolution, so parsed
+    // versions are shared for as long as anything is still using them.
+    private static final ConcurrentHashMap<String, Interned> INTERNED = new ConcurrentHashMap<>();
+
+    private static final ReferenceQueue<Version> CLEARED = new ReferenceQueue<>();
+
+    private static final class Interned extends WeakReference<Version> {
+        private final String key;
+
+        Interned(Version version) {
+            super(version, CLEARED);
+            this.key = version.version;
+        }
+    }
+
     private final String version;
 
     private final List<Item> items;
 
+    // The items as plain numbers, for versions like 1.2.3 made up of nothing else.
+    // Null if any item is a qualifier or too big for a long.
+    private final long[] numbers;
+
     private final int hash;
 
     public Version(String version) {
         this.version = Objects.requireNonNull(version, "version cannot be null");
         items = parse(version);
+        numbers = numbers(items);
         hash = items.hashCode();
     }
 
+    private static long[] numbers(List<Item> items) {
+        var numbers = new long[items.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            var item = items.get(i);
+            switch (item.kind()) {
+                case INT -> numbers[i] = (Integer) item.value();
+                case BIGINT -> {
+                    var value = (BigInteger) item.value();
+                    if (value.bitLength() >= Long.SIZE) {
+                        return null;
+                    }
+                    numbers[i] = value.longValue();
+                }
+                default -> {
+                    return null;
+                }
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Gets the version for the given string, re-using an existing instance if there is one.
+     *
+     * <p>
+     *     Unlike {@link #Version(String)}, this only parses a given string once for as long as
+     *     the version is in use, and equal strings give identical instances.
+     * </p>
+     *
+     * @param version The version string.
+     * @return The shared instance for that string.
+     */
+    public static Version of(String version) {
+        Objects.requireNonNull(version, "version cannot be null");
+        expungeCleared();
+
+        var interned = INTERNED.get(version);
+        var existing = interned == null ? null : interned.get();
+        if (existing != null) {
+            return existing;
+        }
+
+        var created = new Version(version);
+        while (true) {
+            interned = INTERNED.putIfAbsent(version, new Interned(created));
+            if (interned == null) {
+                return created;
+            }
+            existing = interned.get();
+            if (existing != null) {
+                return existing;
+            }
+            INTERNED.remove(version, interned);
+        }
+    }
+
+    private static void expungeCleared() {
+        Reference<? extends Version> cleared;
+        while ((cleared = CLEARED.poll()) != null) {
+            INTERNED.remove(((Interned) cleared).key, cleared);
+        }
+    }
+
     private static List<Item> parse(String version) {
         List<Item> items = new ArrayList<>();
 
@@ -72,6 +159,43 @@ public final class Version implements Comparable<Version> {
 
     @Override
     public int compareTo(Version obj) {
+        if (this == obj) {
+            return 0;
+        }
+        if (numbers != null && obj.numbers != null) {
+            return compareNumbers(numbers, obj.numbers);
+        }
+        return compareItems(obj);
+    }
+
+    /**
+     * Compares versions made up of only numbers. Trailing zeros were already trimmed,
+     * so whichever has a non-zero number left over once the other runs out is bigger.
+     */
+    private static int compareNumbers(long[] these, long[] those) {
+        var common = Math.min(these.length, those.length);
+        for (int i = 0; i < common; i++) {
+            if (these[i] != those[i]) {
+                return Long.compare(these[i], those[i]);
+            }
+        }
+        for (int i = common; i < these.length; i++) {
+            if (these[i] != 0) {
+                return 1;
+            }
+        }
+        for (int i = common; i < those.length; i++) {
+            if (those[i] != 0) {
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares versions item by item, which works for any version.
+     */
+    int compareItems(Version obj) {
         final List<Item> these = items;
         final List<Item> those = obj.items;
 
@@ -107,7 +231,7 @@ public final class Version implements Comparable<Version> {
 
     @Override
     public boolean equals(Object obj) {
-        return (obj instanceof Version other) && compareTo(other) == 0;
+        return this == obj || (obj instanceof Version other) && compareTo(other) == 0;
     }
 
     @Override
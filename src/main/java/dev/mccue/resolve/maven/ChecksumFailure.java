@@ -0,0 +1,20 @@
+package dev.mccue.resolve.maven;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * A downloaded file did not match its published checksum, or had none, under {@link ChecksumPolicy#FAIL}.
+ */
+final class ChecksumFailure extends IOException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    ChecksumFailure(String message) {
+        super(message);
+    }
+
+    ChecksumFailure(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,27 @@
+package dev.mccue.resolve.maven;
+
+/**
+ * What a {@link MavenRepository} does when a file it downloads doesn't match the checksum
+ * published next to it, or when no checksum is published.
+ *
+ * <p>
+ *     Checksums are read from the {@code .sha1} file next to each POM and jar, or from the
+ *     {@code .sha256} file if there is no {@code .sha1}.
+ * </p>
+ */
+public enum ChecksumPolicy {
+    /**
+     * Fail the download, so nothing is put in the cache.
+     */
+    FAIL,
+
+    /**
+     * Log a warning and use the file anyway.
+     */
+    WARN,
+
+    /**
+     * Don't look for checksums at all.
+     */
+    IGNORE
+}
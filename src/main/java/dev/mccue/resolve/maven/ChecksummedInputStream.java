@@ -0,0 +1,189 @@
+package dev.mccue.resolve.maven;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Hashes a file as it is read and checks it against the published checksum once the end is reached.
+ *
+ * <p>
+ *     Since the file is hashed on its way into the cache, a file that is already cached
+ *     never has to be read again to check it.
+ * </p>
+ */
+@NullMarked
+final class ChecksummedInputStream extends DigestInputStream {
+    private static final System.Logger LOG =
+            System.getLogger(ChecksummedInputStream.class.getName());
+
+    /**
+     * @param algorithm The name of the {@link MessageDigest} algorithm.
+     * @param expected The published checksum, in hex.
+     */
+    record Checksum(String algorithm, String expected) {
+        Checksum {
+            Objects.requireNonNull(algorithm);
+            Objects.requireNonNull(expected);
+        }
+    }
+
+    private record Published(String extension, String algorithm) {}
+
+    // Every file in Maven Central has a .sha1, so that is looked for first
+    // to avoid asking for a .sha256 that usually isn't there.
+    private static final List<Published> PUBLISHED = List.of(
+            new Published("sha1", "SHA-1"),
+            new Published("sha256", "SHA-256")
+    );
+
+    private final Checksum checksum;
+    private final ChecksumPolicy policy;
+    private final String file;
+    private boolean checked;
+
+    ChecksummedInputStream(InputStream inputStream, Checksum checksum, ChecksumPolicy policy, String file) {
+        super(inputStream, messageDigest(checksum.algorithm()));
+        this.checksum = checksum;
+        this.policy = Objects.requireNonNull(policy);
+        this.file = Objects.requireNonNull(file);
+        this.checked = false;
+    }
+
+    private static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts fetching the checksum published next to the file at the given path. If the returned
+     * future is cancelled, the request in flight is abandoned and no more checksum files are asked for.
+     *
+     * @return The checksum, or empty if none is published.
+     */
+    static CompletableFuture<Optional<Checksum>> published(Transport transport, List<String> path) {
+        var checksum = new CompletableFuture<Optional<Checksum>>();
+        published(transport, path, 0, checksum);
+        return checksum;
+    }
+
+    private static void published(
+            Transport transport,
+            List<String> path,
+            int attempt,
+            CompletableFuture<Optional<Checksum>> checksum
+    ) {
+        if (checksum.isDone()) {
+            return;
+        }
+        if (attempt == PUBLISHED.size()) {
+            checksum.complete(Optional.empty());
+            return;
+        }
+
+        var published = PUBLISHED.get(attempt);
+        var checksumPath = new ArrayList<>(path);
+        checksumPath.set(checksumPath.size() - 1, checksumPath.get(checksumPath.size() - 1) + "." + published.extension());
+
+        var request = transport.getChecksumAsync(checksumPath);
+        checksum.whenComplete((__, ___) -> request.cancel(false));
+        request.whenComplete((result, throwable) -> {
+            switch (result) {
+                case null -> checksum.completeExceptionally(throwable);
+                case Transport.GetFileResult.Success success -> {
+                    try (var inputStream = success.inputStream()) {
+                        checksum.complete(Optional.of(new Checksum(
+                                published.algorithm(),
+                                parse(new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII))
+                        )));
+                    } catch (IOException e) {
+                        checksum.completeExceptionally(e);
+                    }
+                }
+                case Transport.GetFileResult.NotFound __ -> published(transport, path, attempt + 1, checksum);
+                case Transport.GetFileResult.Error error -> checksum.completeExceptionally(error.throwable());
+            }
+        });
+    }
+
+    /**
+     * Checksum files hold the hex digest, sometimes followed by the name of the file it is for.
+     */
+    static String parse(String contents) {
+        var trimmed = contents.strip();
+        var end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+            end++;
+        }
+        return trimmed.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = super.read();
+        if (b == -1) {
+            check();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        var read = super.read(b, off, len);
+        if (read == -1) {
+            check();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes still need to be hashed.
+        var buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+        var skipped = 0L;
+        while (skipped < n) {
+            var read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    private void check() throws IOException {
+        if (checked) {
+            return;
+        }
+        checked = true;
+
+        var actual = HexFormat.of().formatHex(getMessageDigest().digest());
+        if (actual.equals(checksum.expected())) {
+            LOG.log(Level.TRACE, () -> "Checksum matched. file=" + file + ", algorithm=" + checksum.algorithm());
+            return;
+        }
+
+        var message = checksum.algorithm() + " checksum mismatch for " + file
+                      + ". expected=" + checksum.expected() + ", actual=" + actual;
+        if (policy == ChecksumPolicy.FAIL) {
+            throw new ChecksumFailure(message);
+        }
+        LOG.log(Level.WARNING, message);
+    }
+}
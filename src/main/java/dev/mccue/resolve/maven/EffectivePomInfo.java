@@ -1,6 +1,7 @@
 package dev.mccue.resolve.maven;
 
 import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.CacheKey;
 import dev.mccue.resolve.Library;
 import dev.mccue.resolve.doc.Rife;
 import org.jspecify.annotations.NullMarked;
@@ -113,6 +114,19 @@ record EffectivePomInfo(
     }
 
     EffectivePomInfo resolveImports(MavenRepository repository, Cache cache, Runtime.Version jdkVersion, Os os) {
+        return resolveImports(repository, cache, jdkVersion, os, __ -> {});
+    }
+
+    /**
+     * @param sources Told the cache key of every POM file that went into an imported BOM.
+     */
+    EffectivePomInfo resolveImports(
+            MavenRepository repository,
+            Cache cache,
+            Runtime.Version jdkVersion,
+            Os os,
+            Consumer<CacheKey> sources
+    ) {
         var props = new LinkedHashMap<>(properties);
 
         var dependencyManagementWithImportsFlattened = this.dependencyManagement.stream()
@@ -122,13 +136,16 @@ record EffectivePomInfo(
                     }
                     else {
                         dependency = dependency.map(s -> resolveProperties(props, s));
-                        var effectiveBom = EffectivePomInfo.from(repository.getAllPoms(
-                                        dependency.groupId().orElseThrow(),
-                                        dependency.artifactId().orElseThrow(),
-                                        dependency.version().orElseThrow(),
-                                        cache
-                                ), jdkVersion, os)
-                                .resolveImports(repository, cache, jdkVersion, os);
+                        var sourcedBom = repository.getEffectiveBom(
+                                dependency.groupId().orElseThrow(),
+                                dependency.artifactId().orElseThrow(),
+                                dependency.version().orElseThrow(),
+                                cache,
+                                jdkVersion,
+                                os
+                        );
+                        sourcedBom.sources().forEach(sources);
+                        var effectiveBom = sourcedBom.value();
 
                         // Properties in declared POM take precedence over those in the BOM.
                         effectiveBom.properties.forEach((k, v) -> {
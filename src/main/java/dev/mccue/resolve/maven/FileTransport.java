@@ -40,4 +40,9 @@ public final class FileTransport implements Transport {
             return new GetFileResult.Error(e);
         }
     }
+
+    @Override
+    public String toString() {
+        return "FileTransport[" + root + "]";
+    }
 }
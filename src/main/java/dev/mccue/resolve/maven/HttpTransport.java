@@ -2,14 +2,21 @@ package dev.mccue.resolve.maven;
 
 import dev.mccue.resolve.util.Lazy;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
 import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -17,21 +24,52 @@ public final class HttpTransport implements Transport {
     private static final System.Logger LOG =
             System.getLogger(HttpTransport.class.getName());
 
+    /**
+     * How many requests are allowed to be in flight against a single repository by default.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+
+    /**
+     * How many checksum requests are allowed to be in flight against a single repository, on top
+     * of the requests for files.
+     */
+    static final int MAX_CONCURRENT_CHECKSUM_REQUESTS = 4;
+
     private final String url;
     private final Lazy<HttpClient> httpClient;
     private final Consumer<HttpRequest.Builder> enrichRequest;
+    private final Permits permits;
+    private final Permits checksumPermits;
 
     public HttpTransport(
             String url,
             Supplier<HttpClient> httpClient,
             Consumer<HttpRequest.Builder> enrichRequest
     ) {
+        this(url, httpClient, enrichRequest, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * @param maxConcurrentRequests The most requests to have in flight at once. A request counts
+     *                              as in flight until the body of its response is closed.
+     */
+    public HttpTransport(
+            String url,
+            Supplier<HttpClient> httpClient,
+            Consumer<HttpRequest.Builder> enrichRequest,
+            int maxConcurrentRequests
+    ) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be positive: " + maxConcurrentRequests);
+        }
         if (!url.endsWith("/")) {
             url = url + "/";
         }
         this.url = url;
         this.httpClient = new Lazy<>(httpClient);
         this.enrichRequest = enrichRequest;
+        this.permits = new Permits(maxConcurrentRequests);
+        this.checksumPermits = new Permits(MAX_CONCURRENT_CHECKSUM_REQUESTS);
     }
 
     @Override
@@ -46,6 +84,37 @@ public final class HttpTransport implements Transport {
 
     @Override
     public GetFileResult getFile(List<String> pathElements) {
+        var result = getFileAsync(pathElements);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            return new GetFileResult.Error(e);
+        } catch (ExecutionException e) {
+            return new GetFileResult.Error(e.getCause());
+        }
+    }
+
+    /**
+     * Makes the request without blocking any thread while waiting on the permit for it
+     * or on the response headers.
+     */
+    @Override
+    public CompletableFuture<GetFileResult> getFileAsync(List<String> pathElements) {
+        return request(pathElements, permits);
+    }
+
+    /**
+     * Like {@link #getFileAsync(List)}, but checksums have their own few permits so that they
+     * never wait on open file responses. One that is cancelled while waiting for a permit is never sent.
+     */
+    @Override
+    public CompletableFuture<GetFileResult> getChecksumAsync(List<String> pathElements) {
+        return request(pathElements, checksumPermits);
+    }
+
+    private CompletableFuture<GetFileResult> request(List<String> pathElements, Permits permits) {
         var path = this.url + String.join("/", pathElements);
 
         var requestBuilder =
@@ -64,46 +133,153 @@ public final class HttpTransport implements Transport {
                         + this
         );
 
-        try {
-            var response = httpClient.send(
-                    requestBuilder.build(),
-                    HttpResponse.BodyHandlers.ofInputStream()
-            );
-
-            LOG.log(
-                    System.Logger.Level.TRACE,
-                    () -> "Got response for file. statusCode="
-                            + response.statusCode()
-                            + ", path="
-                            + path
-                            + ", transport="
-                            + this
-            );
-
-            if (response.statusCode() < 200 || response.statusCode() >= 300) {
-                if (response.statusCode() == 404) {
-                    return new GetFileResult.NotFound();
+        var permit = permits.acquire();
+        var response = permit
+                .thenCompose(__ -> httpClient.sendAsync(
+                        requestBuilder.build(),
+                        HttpResponse.BodyHandlers.ofInputStream()
+                ))
+                .handle((httpResponse, error) -> {
+                    if (error != null) {
+                        // A permit which was cancelled while waiting was never handed out.
+                        if (!permit.isCancelled()) {
+                            permits.release();
+                        }
+                        return new GetFileResult.Error(
+                                error instanceof CompletionException && error.getCause() != null
+                                        ? error.getCause()
+                                        : error
+                        );
+                    }
+                    return toResult(path, httpResponse, permits);
+                });
+
+        // If whoever asked gives up on the file, don't leave the body open holding a permit.
+        var result = new CompletableFuture<GetFileResult>();
+        result.whenComplete((__, ___) -> {
+            if (result.isCancelled()) {
+                permit.cancel(false);
+            }
+        });
+        response.thenAccept(getFileResult -> {
+            if (!result.complete(getFileResult)
+                    && getFileResult instanceof GetFileResult.Success success) {
+                try {
+                    success.inputStream().close();
+                } catch (IOException e) {
+                    LOG.log(System.Logger.Level.TRACE, () -> "Error closing abandoned response body. path=" + path, e);
+                }
+            }
+        });
+        return result;
+    }
+
+    private GetFileResult toResult(String path, HttpResponse<InputStream> response, Permits permits) {
+        LOG.log(
+                System.Logger.Level.TRACE,
+                () -> "Got response for file. statusCode="
+                        + response.statusCode()
+                        + ", path="
+                        + path
+                        + ", transport="
+                        + this
+        );
+
+        var body = new ReleasingInputStream(response.body(), permits);
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                LOG.log(System.Logger.Level.TRACE, () -> "Error closing response body. path=" + path, e);
+            }
+
+            if (response.statusCode() == 404) {
+                return new GetFileResult.NotFound();
+            }
+            else {
+                return new GetFileResult.Error(new IOException("Bad status code: statusCode=" + response.statusCode()));
+            }
+        }
+
+        var sizeHint = new OptionalLong[] { OptionalLong.empty() };
+        response.headers()
+                .firstValue("content-length")
+                .map(contentLengthString -> {
+                    try {
+                        return Long.parseLong(contentLengthString);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                })
+                .ifPresent(contentLength -> sizeHint[0] = OptionalLong.of(contentLength));
+
+        return new GetFileResult.Success(body, sizeHint[0]);
+    }
+
+    /**
+     * A semaphore which hands out permits as futures, so waiting for one doesn't block a thread.
+     */
+    private static final class Permits {
+        private final ArrayDeque<CompletableFuture<Void>> waiting;
+        private int available;
+
+        Permits(int available) {
+            this.waiting = new ArrayDeque<>();
+            this.available = available;
+        }
+
+        CompletableFuture<Void> acquire() {
+            synchronized (this) {
+                if (available > 0) {
+                    available--;
+                    return CompletableFuture.completedFuture(null);
+                }
+                var permit = new CompletableFuture<Void>();
+                waiting.add(permit);
+                return permit;
+            }
+        }
+
+        void release() {
+            while (true) {
+                CompletableFuture<Void> next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        available++;
+                        return;
+                    }
                 }
-                else {
-                    return new GetFileResult.Error(new IOException("Bad status code: statusCode=" + response.statusCode()));
+
+                // A waiter that was cancelled never gets the permit, so hand it to the next one.
+                if (next.complete(null)) {
+                    return;
                 }
             }
+        }
+    }
 
-            var sizeHint = new OptionalLong[] { OptionalLong.empty() };
-            response.headers()
-                    .firstValue("content-length")
-                    .map(contentLengthString -> {
-                        try {
-                            return Long.parseLong(contentLengthString);
-                        } catch (NumberFormatException e) {
-                            return null;
-                        }
-                    })
-                    .ifPresent(contentLength -> sizeHint[0] = OptionalLong.of(contentLength));
+    /**
+     * Gives back the permit for a request once the body has been closed.
+     */
+    private static final class ReleasingInputStream extends FilterInputStream {
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final Permits permits;
 
-            return new GetFileResult.Success(response.body(), sizeHint[0]);
-        } catch (IOException | InterruptedException e) {
-            return new GetFileResult.Error(e);
+        ReleasingInputStream(InputStream inputStream, Permits permits) {
+            super(inputStream);
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    super.close();
+                } finally {
+                    permits.release();
+                }
+            }
         }
     }
 
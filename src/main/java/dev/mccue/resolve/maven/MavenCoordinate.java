@@ -149,14 +149,14 @@ public record MavenCoordinate(
     public Path getLibraryLocation(Cache cache) {
         for (var repository : repositories) {
             try {
-                var key = repository.cacheKey(group, artifact, version, classifier, Extension.JAR);
-                return cache.fetchIfAbsent(key, () -> repository.getArtifact(
+                return repository.fetchArtifact(
                         group,
                         artifact,
                         version,
                         classifier,
-                        Extension.JAR
-                ));
+                        Extension.JAR,
+                        cache
+                );
             } catch (ArtifactNotFound e) {
                 LOG.log(
                         Level.TRACE,
@@ -188,14 +188,14 @@ public record MavenCoordinate(
     public Optional<Path> getLibrarySourcesLocation(Cache cache) {
         for (var repository : repositories) {
             try {
-                var key = repository.cacheKey(group, artifact, version, sourceClassifier, Extension.JAR);
-                return Optional.of(cache.fetchIfAbsent(key, () -> repository.getArtifact(
+                return Optional.of(repository.fetchArtifact(
                         group,
                         artifact,
                         version,
                         sourceClassifier,
-                        Extension.JAR
-                )));
+                        Extension.JAR,
+                        cache
+                ));
             } catch (ArtifactNotFound e) {
                 LOG.log(
                         Level.TRACE,
@@ -227,14 +227,14 @@ public record MavenCoordinate(
     public Optional<Path> getLibraryDocumentationLocation(Cache cache) {
         for (var repository : repositories) {
             try {
-                var key = repository.cacheKey(group, artifact, version, documentationClassifier, Extension.JAR);
-                return Optional.of(cache.fetchIfAbsent(key, () -> repository.getArtifact(
+                return Optional.of(repository.fetchArtifact(
                         group,
                         artifact,
                         version,
                         documentationClassifier,
-                        Extension.JAR
-                )));
+                        Extension.JAR,
+                        cache
+                ));
             } catch (ArtifactNotFound e) {
                 LOG.log(
                         Level.TRACE,
@@ -63,11 +63,11 @@ record MavenMetadata(
                     case "artifactId" -> next = artifactId ->
                             this.artifact = new Artifact(artifactId);
                     case "latest" -> next = latest ->
-                            this.latest = new Version(latest);
+                            this.latest = Version.of(latest);
                     case "release" -> next = release ->
-                            this.release = new Version(release);
+                            this.release = Version.of(release);
                     case "version" -> next = version ->
-                            this.versions.add(new Version(version));
+                            this.versions.add(Version.of(version));
                     case "lastUpdated" -> next = lastUpdated ->
                             this.lastUpdated = LocalDateTime.parse(
                                     lastUpdated,
@@ -2,15 +2,18 @@ package dev.mccue.resolve.maven;
 
 import dev.mccue.resolve.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.lang.System.Logger.Level;
@@ -43,6 +46,36 @@ public final class MavenRepository {
         return new MavenRepository(url, httpClient, enrichRequest);
     }
 
+    /**
+     * @param url The root of the repository.
+     * @param maxConcurrentRequests The most requests to have in flight against the repository at once.
+     */
+    public static MavenRepository remote(String url, int maxConcurrentRequests) {
+        return new MavenRepository(new HttpTransport(
+                url,
+                MavenRepository::defaultHttpClient,
+                request -> {},
+                maxConcurrentRequests
+        ));
+    }
+
+    /**
+     * The client used by repositories which aren't given one.
+     *
+     * <p>
+     *     Connections are pooled per client, so sharing one lets every such repository reuse
+     *     connections to the same host, and lets requests be multiplexed over one connection
+     *     against servers which speak HTTP/2.
+     * </p>
+     */
+    static HttpClient defaultHttpClient() {
+        return DefaultHttpClient.INSTANCE;
+    }
+
+    private static final class DefaultHttpClient {
+        static final HttpClient INSTANCE = HttpClient.newHttpClient();
+    }
+
     public static MavenRepository local() {
         return new MavenRepository(new FileTransport(Path.of(System.getProperty("user.home"), ".m2")));
     }
@@ -72,6 +105,14 @@ public final class MavenRepository {
 
     private final Transport transport;
 
+    private final PomCache pomCache;
+
+    private final boolean persistManifests;
+
+    private final NotFoundCache notFoundCache;
+
+    private final ChecksumPolicy checksumPolicy;
+
     MavenRepository(String url) {
         this(url, request -> {});
     }
@@ -81,7 +122,7 @@ public final class MavenRepository {
     }
 
     MavenRepository(String url, Consumer<HttpRequest.Builder> enrichRequest) {
-        this(url, HttpClient::newHttpClient, enrichRequest);
+        this(url, MavenRepository::defaultHttpClient, enrichRequest);
     }
 
     MavenRepository(
@@ -89,15 +130,105 @@ public final class MavenRepository {
             Supplier<HttpClient> httpClient,
             Consumer<HttpRequest.Builder> enrichRequest
     ) {
-        this.transport = new HttpTransport(url, httpClient, enrichRequest);
-        this.isSnapshot = false;
+        this(new HttpTransport(url, httpClient, enrichRequest));
     }
 
     MavenRepository(Transport transport) {
+        this(
+                transport,
+                PomCache.shared(),
+                false,
+                transport instanceof FileTransport ? NotFoundCache.disabled() : NotFoundCache.shared(),
+                transport instanceof FileTransport ? ChecksumPolicy.IGNORE : ChecksumPolicy.WARN
+        );
+    }
+
+    private MavenRepository(
+            Transport transport,
+            PomCache pomCache,
+            boolean persistManifests,
+            NotFoundCache notFoundCache,
+            ChecksumPolicy checksumPolicy
+    ) {
         this.transport = transport;
+        this.pomCache = pomCache;
+        this.persistManifests = persistManifests;
+        this.notFoundCache = notFoundCache;
+        this.checksumPolicy = checksumPolicy;
         this.isSnapshot = false;
     }
 
+    /**
+     * @param pomCache The cache to hold parsed POM files in.
+     * @return A copy of this repository which uses the given cache instead of {@link PomCache#shared()}.
+     */
+    public MavenRepository withPomCache(PomCache pomCache) {
+        return new MavenRepository(
+                this.transport,
+                Objects.requireNonNull(pomCache),
+                this.persistManifests,
+                this.notFoundCache,
+                this.checksumPolicy
+        );
+    }
+
+    /**
+     * Whether to save the manifests computed from this repository's POMs into the {@link Cache}.
+     *
+     * <p>
+     *     When there is a saved manifest whose POMs, including parents and imported BOMs, have not
+     *     changed on disk since it was written, it is used without parsing any of those POMs.
+     * </p>
+     *
+     * @param persistManifests Whether to save and re-use manifests.
+     * @return A copy of this repository with the given setting.
+     */
+    public MavenRepository withPersistentManifests(boolean persistManifests) {
+        return new MavenRepository(
+                this.transport,
+                this.pomCache,
+                persistManifests,
+                this.notFoundCache,
+                this.checksumPolicy
+        );
+    }
+
+    /**
+     * @param notFoundCache Where to remember which files this repository doesn't have.
+     * @return A copy of this repository which uses the given cache instead of the default.
+     */
+    public MavenRepository withNotFoundCache(NotFoundCache notFoundCache) {
+        return new MavenRepository(
+                this.transport,
+                this.pomCache,
+                this.persistManifests,
+                Objects.requireNonNull(notFoundCache),
+                this.checksumPolicy
+        );
+    }
+
+    /**
+     * Whether to check POMs and jars from this repository against the checksums published next to them.
+     *
+     * <p>
+     *     By default remote repositories use {@link ChecksumPolicy#WARN} and local ones
+     *     use {@link ChecksumPolicy#IGNORE}, since installing into a local repository doesn't
+     *     usually write checksums.
+     * </p>
+     *
+     * @param checksumPolicy What to do with a file that doesn't match its checksum.
+     * @return A copy of this repository with the given policy.
+     */
+    public MavenRepository withChecksumPolicy(ChecksumPolicy checksumPolicy) {
+        return new MavenRepository(
+                this.transport,
+                this.pomCache,
+                this.persistManifests,
+                this.notFoundCache,
+                Objects.requireNonNull(checksumPolicy)
+        );
+    }
+
 
     CacheKey cacheKey(Group group, Artifact artifact, Version version, Classifier classifier, Extension extension) {
         var key = new ArrayList<>(
@@ -127,13 +258,25 @@ public final class MavenRepository {
                         ", transport=" + this.transport
         );
 
-        var getFileResult = transport.getFile(
-                getArtifactPath(group, artifact, version, classifier, extension)
-        );
+        var path = getArtifactPath(group, artifact, version, classifier, extension);
+
+        var checksum = checksumPolicy == ChecksumPolicy.IGNORE
+                ? null
+                : ChecksummedInputStream.published(transport, path);
+
+        // The checksum is asked for alongside the file, so waiting on it costs next to nothing.
+        // Transports don't make checksum requests wait on open file responses, so this can't
+        // get stuck behind the file it is for.
+        var getFileResult = transport.getFile(path);
+        if (checksum != null && !(getFileResult instanceof Transport.GetFileResult.Success)) {
+            checksum.cancel(false);
+        }
 
         switch (getFileResult) {
             case Transport.GetFileResult.Success success -> {
-                var inputStream = success.inputStream();
+                var inputStream = checksum == null
+                        ? success.inputStream()
+                        : checked(path, success.inputStream(), checksum);
                 LOG.log(
                         Level.TRACE,
                         () -> "Successfully got file for artifact. group=" + group +
@@ -175,6 +318,107 @@ public final class MavenRepository {
         }
     }
 
+    /**
+     * Fetches an artifact into the cache, unless this repository was recently found not to have it.
+     *
+     * @param cache The cache the artifact is being fetched into, which may hold markers for
+     *              files that were not found.
+     */
+    Path fetchArtifact(
+            Group group,
+            Artifact artifact,
+            Version version,
+            Classifier classifier,
+            Extension extension,
+            Cache cache
+    ) throws ArtifactNotFound {
+        return fetchArtifact(group, artifact, version, classifier, extension, cache, cache::fetchIfAbsent);
+    }
+
+    /**
+     * @param fetch Gets the artifact given its cache key and where to download it from.
+     */
+    private <T> T fetchArtifact(
+            Group group,
+            Artifact artifact,
+            Version version,
+            Classifier classifier,
+            Extension extension,
+            Cache cache,
+            BiFunction<CacheKey, Supplier<InputStream>, T> fetch
+    ) throws ArtifactNotFound {
+        var key = cacheKey(group, artifact, version, classifier, extension);
+        var asked = new boolean[] { false };
+        try {
+            return fetch.apply(key, () -> {
+                if (notFoundCache.isMissing(key, cache)) {
+                    LOG.log(
+                            Level.TRACE,
+                            () -> "Artifact was recently not found, not asking again. group=" + group +
+                                  ", artifact=" + artifact +
+                                  ", version=" + version +
+                                  ", classifier=" + classifier +
+                                  ", extension=" + extension +
+                                  ", transport=" + this.transport
+                    );
+                    throw new ArtifactNotFound(group, artifact, version);
+                }
+
+                asked[0] = true;
+                return getArtifact(group, artifact, version, classifier, extension);
+            });
+        } catch (ArtifactNotFound e) {
+            // Only recorded once the cache has let go of the artifact's locks,
+            // since a marker left in the cache takes locks of its own.
+            if (asked[0]) {
+                notFoundCache.recordMissing(key, cache);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps the file so it is checked against its published checksum as it is read.
+     */
+    private InputStream checked(
+            List<String> path,
+            InputStream inputStream,
+            CompletableFuture<Optional<ChecksummedInputStream.Checksum>> checksum
+    ) {
+        var file = transport + " " + String.join("/", path);
+        Optional<ChecksummedInputStream.Checksum> published;
+        String missing;
+        Throwable cause = null;
+        try {
+            published = checksum.join();
+            missing = "No checksum published for " + file;
+        } catch (CompletionException e) {
+            published = Optional.empty();
+            missing = "Could not get checksum for " + file;
+            cause = e.getCause();
+        }
+
+        if (published.isPresent()) {
+            return new ChecksummedInputStream(inputStream, published.get(), checksumPolicy, file);
+        }
+
+        if (checksumPolicy == ChecksumPolicy.FAIL) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOG.log(Level.TRACE, () -> "Could not close file. file=" + file, e);
+            }
+            throw new UncheckedIOException(
+                    cause == null ? new ChecksumFailure(missing) : new ChecksumFailure(missing, cause)
+            );
+        }
+
+        var message = missing;
+        var error = cause;
+        LOG.log(Level.WARNING, () -> message, error);
+        return inputStream;
+    }
+
     InputStream getMetadata(Group group, Artifact artifact) {
         LOG.log(
                 Level.TRACE,
@@ -262,6 +506,11 @@ public final class MavenRepository {
     }
 
     PomInfo getPomInfo(Group group, Artifact artifact, Version version, Cache cache) throws ArtifactNotFound {
+        var key = cacheKey(group, artifact, version, Classifier.EMPTY, Extension.POM);
+        return pomCache.pomInfo(key, () -> parsePomInfo(key, group, artifact, version, cache));
+    }
+
+    private PomInfo parsePomInfo(CacheKey key, Group group, Artifact artifact, Version version, Cache cache) {
         LOG.log(
                 Level.TRACE,
                 () -> "About to fetch pom file. group=" + group +
@@ -270,21 +519,19 @@ public final class MavenRepository {
                         ", cache=" + cache
         );
 
-        var key = cacheKey(group, artifact, version, Classifier.EMPTY, Extension.POM);
         try {
             if (cache == null) {
-                try (var data = getArtifact(group, artifact, version, Classifier.EMPTY, Extension.POM)) {
-                    return PomParser.parse(new String(data.readAllBytes(), StandardCharsets.UTF_8));
+                try (var data = fetchArtifact(
+                        group, artifact, version, Classifier.EMPTY, Extension.POM, null, (__, pom) -> pom.get()
+                )) {
+                    return PomParser.parse(data);
                 }
             }
             else {
-                var pomPath = cache.fetchIfAbsent(key, () ->
-                        getArtifact(group, artifact, version, Classifier.EMPTY, Extension.POM)
+                var pom = fetchArtifact(
+                        group, artifact, version, Classifier.EMPTY, Extension.POM, cache, cache::fetchBytesIfAbsent
                 );
-
-                try (var data = Files.newInputStream(pomPath)) {
-                    return PomParser.parse(new String(data.readAllBytes(), StandardCharsets.UTF_8));
-                }
+                return PomParser.parse(new ByteArrayInputStream(pom));
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -292,32 +539,33 @@ public final class MavenRepository {
 
     }
 
-    Optional<PomInfo> getParentPomInfo(PomInfo pomInfo, Cache cache) {
-        if (pomInfo.parent() instanceof PomParent.Declared declaredPom) {
-            return Optional.of(
-                    getPomInfo(
-                            new Group(declaredPom.groupId().value()),
-                            new Artifact(declaredPom.artifactId().value()),
-                            new Version(declaredPom.version().value()),
-                            cache
-                    )
-            );
-        }
-        else {
-            return Optional.empty();
-        }
+    ChildHavingPomInfo getAllPoms(Group group, Artifact artifact, Version version, Cache cache) {
+        return getPomChain(group, artifact, version, cache).value();
     }
 
-    ChildHavingPomInfo getAllPoms(Group group, Artifact artifact, Version version, Cache cache) {
+    /**
+     * Gets a POM along with all of its parents, and the cache keys of each of those POM files.
+     */
+    PomCache.Sourced<ChildHavingPomInfo> getPomChain(Group group, Artifact artifact, Version version, Cache cache) {
+        return pomCache.pomChain(
+                cacheKey(group, artifact, version, Classifier.EMPTY, Extension.POM),
+                () -> walkAllPoms(group, artifact, version, cache)
+        );
+    }
+
+    private PomCache.Sourced<ChildHavingPomInfo> walkAllPoms(Group group, Artifact artifact, Version version, Cache cache) {
+        var sources = new LinkedHashSet<CacheKey>();
+        sources.add(cacheKey(group, artifact, version, Classifier.EMPTY, Extension.POM));
+
         var poms = new ArrayList<PomInfo>();
         var pom = getPomInfo(group, artifact, version, cache);
         poms.add(pom);
-        while (true) {
-            var parentPom = getParentPomInfo(poms.get(poms.size() - 1), cache).orElse(null);
-            if (parentPom == null) {
-                break;
-            }
-            poms.add(parentPom);
+        while (poms.get(poms.size() - 1).parent() instanceof PomParent.Declared declaredPom) {
+            var parentGroup = new Group(declaredPom.groupId().value());
+            var parentArtifact = new Artifact(declaredPom.artifactId().value());
+            var parentVersion = Version.of(declaredPom.version().value());
+            sources.add(cacheKey(parentGroup, parentArtifact, parentVersion, Classifier.EMPTY, Extension.POM));
+            poms.add(getPomInfo(parentGroup, parentArtifact, parentVersion, cache));
         }
 
         var iterator = poms.iterator();
@@ -347,7 +595,62 @@ public final class MavenRepository {
             );
         }
 
-        return childHavingPomInfo;
+        return new PomCache.Sourced<>(childHavingPomInfo, sources);
+    }
+
+    /**
+     * Gets a BOM in the form it takes when imported, with its own imports flattened.
+     */
+    PomCache.Sourced<EffectivePomInfo> getEffectiveBom(
+            Group group,
+            Artifact artifact,
+            Version version,
+            Cache cache,
+            Runtime.Version jdkVersion,
+            Os os
+    ) {
+        return pomCache.bom(
+                cacheKey(group, artifact, version, Classifier.EMPTY, Extension.POM),
+                jdkVersion,
+                os,
+                () -> getEffectivePom(group, artifact, version, cache, jdkVersion, os)
+        );
+    }
+
+    private PomCache.Sourced<EffectivePomInfo> getEffectivePom(
+            Group group,
+            Artifact artifact,
+            Version version,
+            Cache cache,
+            Runtime.Version jdkVersion,
+            Os os
+    ) {
+        var pomChain = getPomChain(group, artifact, version, cache);
+        var sources = new LinkedHashSet<>(pomChain.sources());
+        var effectivePom = EffectivePomInfo.from(pomChain.value(), jdkVersion, os)
+                .resolveImports(this, cache, jdkVersion, os, sources::add);
+        return new PomCache.Sourced<>(effectivePom, sources);
+    }
+
+    /**
+     * Where the manifest computed for a given set of scopes, JDK version and {@link Os}
+     * is persisted. This sits right next to the POM it was computed from.
+     */
+    CacheKey manifestCacheKey(
+            Group group,
+            Artifact artifact,
+            Version version,
+            List<Scope> scopes,
+            Runtime.Version jdkVersion,
+            Os os
+    ) {
+        var key = new ArrayList<>(cacheKey(group, artifact, version, Classifier.EMPTY, Extension.POM).components());
+        key.set(
+                key.size() - 1,
+                artifact + "-" + version + ".manifest-"
+                        + Integer.toHexString(PersistedManifest.environment(scopes, jdkVersion, os).hashCode())
+        );
+        return new CacheKey(key);
     }
 
     PomManifest getManifest(
@@ -360,14 +663,7 @@ public final class MavenRepository {
             Runtime.Version jdkVersion,
             Os os
     ) {
-        var effectivePom = EffectivePomInfo.from(
-                getAllPoms(group, artifact, version, cache),
-                jdkVersion,
-                os
-        );
-        return PomManifest.from(
-                effectivePom.resolveImports(this, cache, jdkVersion, os),
-                scopes,
+        PomManifest.MavenCoordinateMaker makeCoordinate =
                 (depGroup, depArtifact, depVersion, defaultClassifier) -> new MavenCoordinate(
                         depGroup,
                         depArtifact,
@@ -380,12 +676,50 @@ public final class MavenRepository {
                         jdkVersion,
                         os
 
-                )
-        ).normalize(cache);
+                );
+
+        CacheKey manifestKey = null;
+        if (cache != null && persistManifests) {
+            manifestKey = manifestCacheKey(group, artifact, version, scopes, jdkVersion, os);
+            var persisted = PersistedManifest.read(
+                    cache,
+                    manifestKey,
+                    scopes,
+                    jdkVersion,
+                    os,
+                    makeCoordinate
+            );
+            if (persisted.isPresent()) {
+                return persisted.get().normalize(cache);
+            }
+        }
+
+        var effectivePom = getEffectivePom(group, artifact, version, cache, jdkVersion, os);
+        var manifest = PomManifest.from(
+                effectivePom.value(),
+                scopes,
+                makeCoordinate
+        );
+
+        if (manifestKey != null) {
+            PersistedManifest.write(
+                    cache,
+                    manifestKey,
+                    scopes,
+                    jdkVersion,
+                    os,
+                    effectivePom.sources(),
+                    manifest
+            );
+        }
+
+        return manifest.normalize(cache);
     }
 
     MavenMetadata getMavenMetadata(Group group, Artifact artifact) throws IOException {
-        return MavenMetadata.parseXml(new String(getMetadata(group, artifact).readAllBytes(), StandardCharsets.UTF_8));
+        try (var data = getMetadata(group, artifact)) {
+            return MavenMetadata.parseXml(new String(data.readAllBytes(), StandardCharsets.UTF_8));
+        }
     }
 
     @Override
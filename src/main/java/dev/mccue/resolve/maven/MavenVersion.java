@@ -24,6 +24,6 @@ sealed interface MavenVersion {
         }
 
 
-        return new Known(new Version(value));
+        return new Known(Version.of(value));
     }
 }
@@ -0,0 +1,182 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.CacheKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which artifacts a repository has already said it doesn't have.
+ *
+ * <p>
+ *     A {@link MavenCoordinate} checks each of its repositories in order, so with several
+ *     repositories every artifact that lives in a later one would otherwise be asked for,
+ *     and not found, in each of the earlier ones on every resolution.
+ * </p>
+ *
+ * <p>
+ *     Misses are kept in memory, keyed by the repository and the file that was asked for,
+ *     and are forgotten once they are older than {@link #ttl()}. A persistent cache also leaves
+ *     a {@code .error} marker next to where the file would go in the {@link Cache}, so
+ *     other processes using that cache don't ask again either.
+ * </p>
+ *
+ * <p>
+ *     By default remote repositories use {@link NotFoundCache#shared()} and local ones
+ *     use {@link NotFoundCache#disabled()}, since files show up in a local repository
+ *     whenever something is installed into it.
+ * </p>
+ */
+public final class NotFoundCache {
+    private static final System.Logger LOG =
+            System.getLogger(NotFoundCache.class.getName());
+
+    private static final Duration DEFAULT_TTL = Duration.ofHours(24);
+
+    private static final NotFoundCache SHARED = new NotFoundCache(DEFAULT_TTL, false);
+
+    private final ConcurrentHashMap<CacheKey, Long> misses;
+    private final Duration ttl;
+    private final boolean persistent;
+
+    private NotFoundCache(Duration ttl, boolean persistent) {
+        this.misses = new ConcurrentHashMap<>();
+        this.ttl = Objects.requireNonNull(ttl);
+        this.persistent = persistent;
+    }
+
+    /**
+     * @return The cache shared by every remote repository that was not given one explicitly.
+     */
+    public static NotFoundCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param ttl How long to remember a miss for.
+     * @return A new, empty, cache which only remembers misses in this process.
+     */
+    public static NotFoundCache inMemory(Duration ttl) {
+        return new NotFoundCache(ttl, false);
+    }
+
+    /**
+     * @param ttl How long to remember a miss for.
+     * @return A new, empty, cache which also records misses in the {@link Cache} files are fetched into.
+     */
+    public static NotFoundCache persistent(Duration ttl) {
+        return new NotFoundCache(ttl, true);
+    }
+
+    /**
+     * @return A cache which never remembers anything, so every missing file is asked for each time.
+     */
+    public static NotFoundCache disabled() {
+        return new NotFoundCache(Duration.ZERO, false);
+    }
+
+    /**
+     * @param key The cache key the file would be stored under.
+     * @param cache The cache files are being fetched into, if any.
+     * @return Whether the file was recently found to be missing.
+     */
+    boolean isMissing(CacheKey key, Cache cache) {
+        if (ttl.isZero()) {
+            return false;
+        }
+
+        var recordedAt = misses.get(key);
+        if (recordedAt != null) {
+            if (System.nanoTime() - recordedAt < ttl.toNanos()) {
+                return true;
+            }
+            misses.remove(key, recordedAt);
+        }
+
+        if (persistent && cache != null) {
+            var marker = markerKey(key);
+            var path = cache.existing(marker);
+            if (path.isPresent()) {
+                try {
+                    var age = System.currentTimeMillis() - Files.getLastModifiedTime(path.get()).toMillis();
+                    if (age < ttl.toMillis()) {
+                        LOG.log(Level.TRACE, () -> "Found not found marker. key=" + key);
+                        misses.put(key, System.nanoTime() - Duration.ofMillis(Math.max(age, 0)).toNanos());
+                        return true;
+                    }
+                } catch (IOException e) {
+                    LOG.log(Level.TRACE, () -> "Could not read not found marker. key=" + key, e);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param key The cache key the file would have been stored under.
+     * @param cache The cache files are being fetched into, if any.
+     */
+    void recordMissing(CacheKey key, Cache cache) {
+        if (ttl.isZero()) {
+            return;
+        }
+
+        misses.put(key, System.nanoTime());
+
+        if (persistent && cache != null) {
+            try {
+                cache.fetch(markerKey(key), () -> new ByteArrayInputStream(new byte[0]));
+            } catch (UncheckedIOException e) {
+                LOG.log(Level.TRACE, () -> "Could not write not found marker. key=" + key, e);
+            }
+        }
+    }
+
+    /**
+     * Where the marker for a missing file goes, which is next to where the file itself would.
+     */
+    static CacheKey markerKey(CacheKey key) {
+        var components = new ArrayList<>(key.components());
+        var last = components.size() - 1;
+        components.set(last, "." + components.get(last) + ".error");
+        return new CacheKey(components);
+    }
+
+    public Duration ttl() {
+        return ttl;
+    }
+
+    public boolean persistent() {
+        return persistent;
+    }
+
+    /**
+     * @return The number of misses currently remembered in memory.
+     */
+    public int size() {
+        return misses.size();
+    }
+
+    /**
+     * Forgets every miss remembered in memory. Markers left in a {@link Cache} are not removed.
+     */
+    public void clear() {
+        misses.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "NotFoundCache[ttl=" + ttl +
+               ", persistent=" + persistent +
+               ", size=" + size() + "]";
+    }
+}
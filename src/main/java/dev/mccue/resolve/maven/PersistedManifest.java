@@ -0,0 +1,202 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reads and writes {@link PomManifest}s computed from POM files into a {@link Cache}.
+ *
+ * <p>
+ *     The format is line oriented, with fields separated by tabs. Along with the dependencies
+ *     it records the size and modification time of every POM file that was consulted
+ *     to compute them. If any of those no longer match, the saved manifest is ignored.
+ * </p>
+ *
+ * <pre>
+ * jresolve-manifest 1
+ * environment  scopes=compile,runtime;jdk=21;os=linux/amd64/6.5.0
+ * source  2211  1700000000000  https  repo1.maven.org  maven2  org  clojure  clojure  1.11.1  clojure-1.11.1.pom
+ * dependency  org.clojure  spec.alpha  0.3.218    org.clojure:clojure
+ * end  1
+ * </pre>
+ */
+final class PersistedManifest {
+    private static final System.Logger LOG =
+            System.getLogger(PersistedManifest.class.getName());
+
+    private static final String HEADER = "jresolve-manifest 1";
+
+    private PersistedManifest() {}
+
+    /**
+     * Everything other than the POM files themselves which affects what manifest is computed.
+     */
+    static String environment(List<Scope> scopes, Runtime.Version jdkVersion, Os os) {
+        return "scopes=" + scopes.stream().map(Scope::value).collect(Collectors.joining(","))
+                + ";jdk=" + jdkVersion
+                + ";os=" + os.name() + "/" + os.arch() + "/" + os.version();
+    }
+
+    static Optional<PomManifest> read(
+            Cache cache,
+            CacheKey key,
+            List<Scope> scopes,
+            Runtime.Version jdkVersion,
+            Os os,
+            PomManifest.MavenCoordinateMaker makeCoordinate
+    ) {
+        var path = cache.existing(key);
+        if (path.isEmpty()) {
+            return Optional.empty();
+        }
+
+        try {
+            var lines = Files.readAllLines(path.get(), StandardCharsets.UTF_8);
+            if (lines.size() < 3
+                    || !HEADER.equals(lines.get(0))
+                    || !("environment\t" + environment(scopes, jdkVersion, os)).equals(lines.get(1))) {
+                LOG.log(Level.TRACE, () -> "Saved manifest was for a different environment. key=" + key);
+                return Optional.empty();
+            }
+
+            var dependencies = new ArrayList<Dependency>();
+            for (var line : lines.subList(2, lines.size())) {
+                var fields = line.split("\t", -1);
+                switch (fields[0]) {
+                    case "source" -> {
+                        var sourceKey = new CacheKey(Arrays.asList(fields).subList(3, fields.length));
+                        if (!matches(cache, sourceKey, Long.parseLong(fields[1]), Long.parseLong(fields[2]))) {
+                            LOG.log(Level.TRACE, () -> "POM changed since manifest was saved. key=" + key
+                                    + ", source=" + sourceKey);
+                            return Optional.empty();
+                        }
+                    }
+                    case "dependency" -> {
+                        var group = new Group(fields[1]);
+                        var artifact = new Artifact(fields[2]);
+                        var classifier = fields[4].isEmpty() ? Classifier.EMPTY : new Classifier(fields[4]);
+                        var exclusions = new ArrayList<Exclusion>();
+                        for (int i = 5; i < fields.length; i++) {
+                            var parts = fields[i].split(":", 2);
+                            exclusions.add(new Exclusion(parts[0], parts[1]));
+                        }
+                        dependencies.add(new Dependency(
+                                new Library(group, artifact, classifier.asVariant()),
+                                makeCoordinate.make(group, artifact, Version.of(fields[3]), classifier),
+                                Exclusions.of(exclusions)
+                        ));
+                    }
+                    case "end" -> {
+                        if (Integer.parseInt(fields[1]) != dependencies.size()) {
+                            return Optional.empty();
+                        }
+                        LOG.log(Level.TRACE, () -> "Using saved manifest. key=" + key);
+                        return Optional.of(new PomManifest(List.copyOf(dependencies)));
+                    }
+                    default -> {
+                        return Optional.empty();
+                    }
+                }
+            }
+
+            // No end marker, so whatever wrote this did not finish.
+            return Optional.empty();
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.TRACE, () -> "Could not read saved manifest. key=" + key, e);
+            return Optional.empty();
+        }
+    }
+
+    static void write(
+            Cache cache,
+            CacheKey key,
+            List<Scope> scopes,
+            Runtime.Version jdkVersion,
+            Os os,
+            Set<CacheKey> sources,
+            PomManifest manifest
+    ) {
+        var environment = environment(scopes, jdkVersion, os);
+        if (!plain(environment)) {
+            return;
+        }
+
+        var lines = new ArrayList<String>();
+        lines.add(HEADER);
+        lines.add("environment\t" + environment);
+
+        try {
+            for (var source : sources) {
+                if (!source.components().stream().allMatch(PersistedManifest::plain)) {
+                    return;
+                }
+                var path = cache.existing(source).orElseThrow(() ->
+                        new NoSuchFileException(String.join("/", source.components())));
+                lines.add("source\t"
+                        + Files.size(path) + "\t"
+                        + Files.getLastModifiedTime(path).toMillis() + "\t"
+                        + String.join("\t", source.components()));
+            }
+        } catch (IOException e) {
+            LOG.log(Level.TRACE, () -> "Could not check POM to save manifest. key=" + key, e);
+            return;
+        }
+
+        for (var dependency : manifest.dependencies()) {
+            if (!(dependency.coordinate() instanceof MavenCoordinate coordinate)) {
+                return;
+            }
+
+            var fields = new ArrayList<String>();
+            fields.add("dependency");
+            fields.add(coordinate.group().value());
+            fields.add(coordinate.artifact().value());
+            fields.add(coordinate.version().toString());
+            fields.add(coordinate.classifier().value());
+            for (var exclusion : dependency.exclusions().toSet()) {
+                fields.add(exclusion.group().value() + ":" + exclusion.artifact().value());
+            }
+
+            if (!fields.stream().allMatch(PersistedManifest::plain)) {
+                return;
+            }
+            lines.add(String.join("\t", fields));
+        }
+        lines.add("end\t" + manifest.dependencies().size());
+
+        var data = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            cache.fetch(key, () -> new ByteArrayInputStream(data));
+        } catch (UncheckedIOException e) {
+            LOG.log(Level.TRACE, () -> "Could not save manifest. key=" + key, e);
+        }
+    }
+
+    /**
+     * Whether the value can be written as a single field.
+     */
+    private static boolean plain(String value) {
+        return value.indexOf('\t') == -1 && value.indexOf('\n') == -1 && value.indexOf('\r') == -1;
+    }
+
+    private static boolean matches(Cache cache, CacheKey key, long size, long lastModified) throws IOException {
+        var path = cache.existing(key);
+        if (path.isEmpty()) {
+            return false;
+        }
+        return Files.size(path.get()) == size && Files.getLastModifiedTime(path.get()).toMillis() == lastModified;
+    }
+}
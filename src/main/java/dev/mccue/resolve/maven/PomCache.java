@@ -0,0 +1,141 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.CacheKey;
+import dev.mccue.resolve.util.BoundedCache;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * An in memory cache of parsed POM files.
+ *
+ * <p>
+ *     Parent POMs like {@code org.apache:apache} are shared by a large part of any
+ *     real dependency graph. Without this every artifact that inherits from one would
+ *     read and parse it again, along with the rest of its parent chain.
+ * </p>
+ *
+ * <p>
+ *     Entries are keyed by the repository they came from and their group, artifact and
+ *     version. Once more than {@link #maximumSize()} POMs are held, the least recently
+ *     used one is evicted. Parent chains are cached separately under the same bound.
+ * </p>
+ *
+ * <p>
+ *     The flattened form of BOMs brought in with {@code <scope>import</scope>} is
+ *     also kept, keyed additionally by JDK version and {@link Os}. These are what
+ *     nearly every artifact in a large graph ends up importing.
+ * </p>
+ *
+ * <p>
+ *     By default every {@link MavenRepository} uses {@link PomCache#shared()}, so parsed
+ *     POMs are reused across resolutions in the same process.
+ * </p>
+ */
+public final class PomCache {
+    private static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+    private static final PomCache SHARED = new PomCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final BoundedCache<CacheKey, PomInfo> pomInfos;
+    private final BoundedCache<CacheKey, Sourced<ChildHavingPomInfo>> pomChains;
+    private final BoundedCache<BomKey, Sourced<EffectivePomInfo>> boms;
+
+    /**
+     * Something built out of one or more POM files, along with the cache keys of those files.
+     */
+    record Sourced<T>(T value, Set<CacheKey> sources) {
+        Sourced {
+            Objects.requireNonNull(value);
+            sources = Set.copyOf(sources);
+        }
+    }
+
+    /**
+     * The effective form of a BOM depends on the environment its profiles and
+     * properties were resolved against, not just on which POM it is.
+     */
+    private record BomKey(CacheKey pom, Runtime.Version jdkVersion, Os os) {
+    }
+
+    private PomCache(int maximumSize) {
+        this.pomInfos = new BoundedCache<>(maximumSize);
+        this.pomChains = new BoundedCache<>(maximumSize);
+        this.boms = new BoundedCache<>(maximumSize);
+    }
+
+    /**
+     * @return The cache shared by every repository that was not given one explicitly.
+     */
+    public static PomCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param maximumSize The number of POMs, and separately parent chains and BOMs, to hold before evicting.
+     * @return A new, empty, cache.
+     */
+    public static PomCache bounded(int maximumSize) {
+        return new PomCache(maximumSize);
+    }
+
+    /**
+     * @return A cache which never holds onto anything, so every POM is parsed each time it is needed.
+     */
+    public static PomCache disabled() {
+        return new PomCache(0);
+    }
+
+    PomInfo pomInfo(CacheKey key, Supplier<PomInfo> parse) {
+        return pomInfos.get(key, parse);
+    }
+
+    Sourced<ChildHavingPomInfo> pomChain(CacheKey key, Supplier<Sourced<ChildHavingPomInfo>> walk) {
+        return pomChains.get(key, walk);
+    }
+
+    Sourced<EffectivePomInfo> bom(
+            CacheKey key,
+            Runtime.Version jdkVersion,
+            Os os,
+            Supplier<Sourced<EffectivePomInfo>> resolve
+    ) {
+        return boms.get(new BomKey(key, jdkVersion, os), resolve);
+    }
+
+    public int maximumSize() {
+        return pomInfos.maximumSize();
+    }
+
+    public int size() {
+        return pomInfos.size() + pomChains.size() + boms.size();
+    }
+
+    public long hits() {
+        return pomInfos.hits() + pomChains.hits() + boms.hits();
+    }
+
+    public long misses() {
+        return pomInfos.misses() + pomChains.misses() + boms.misses();
+    }
+
+    public long evictions() {
+        return pomInfos.evictions() + pomChains.evictions() + boms.evictions();
+    }
+
+    public void clear() {
+        pomInfos.clear();
+        pomChains.clear();
+        boms.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "PomCache[maximumSize=" + maximumSize() +
+               ", size=" + size() +
+               ", hits=" + hits() +
+               ", misses=" + misses() +
+               ", evictions=" + evictions() + "]";
+    }
+}
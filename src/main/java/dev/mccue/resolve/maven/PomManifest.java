@@ -90,7 +90,7 @@ record PomManifest(
                             makeCoordinate.make(
                                     new Group(declaredGroup.value()),
                                     new Artifact(declaredArtifact.value()),
-                                    new Version(declaredVersion.value()),
+                                    Version.of(declaredVersion.value()),
                                     dependency.classifier().orElse(Classifier.EMPTY)
                             ),
                             Exclusions.of(exclusions.stream()
@@ -11,23 +11,34 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.BiConsumer;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Coursier("https://github.com/coursier/coursier/blob/b5adafa/modules/core/shared/src/main/scala/coursier/maven/PomParser.scala")
 @Rife("https://github.com/rife2/rife2/blob/c915071/lib/src/main/java/rife/bld/dependencies/Xml2MavenPom.java")
 final class PomParser extends DefaultHandler {
     final State state = new State();
-    LL<String> paths = new LL.Nil<>();
 
-    // Each "path" in the document has potentially a registered handler.
+    // The node in HANDLER_TREE for each open element, or null for an element
+    // only handled by a wildcard.
+    private Node[] nodes = new Node[16];
+
+    // Each open element potentially has a registered handler.
     // If it doesn't have one, we still want to track it so popping and
-    // pushing are symmetrical
-    LL<Optional<Handler>> handlers = new LL.Nil<>();
+    // pushing are symmetrical. Elements in skipped subtrees are not tracked.
+    private Handler[] handlers = new Handler[16];
+
+    private int depth = 0;
+
+    // How deep into a subtree with no handlers in it the document is.
+    // Nothing in such a subtree, like <build> or <developers>, is looked at,
+    // so its elements are only counted to know where it ends.
+    private int skipped = 0;
 
     // handlers
     StringBuilder characterBuffer = new StringBuilder();
@@ -35,14 +46,31 @@ final class PomParser extends DefaultHandler {
     // dependencies, dependency, artifactId
     @Override
     public void startElement(String _uri, String _localName, String tagName, org.xml.sax.Attributes _attributes)  {
-        var paths = this.paths.prepend(tagName);
-        this.paths = paths;
-        var handler = HANDLER_MAP.getOrDefault(
-                this.paths,
-                HANDLER_MAP.get(paths.tail().prepend("*"))
-        );
+        if (skipped > 0) {
+            skipped++;
+            return;
+        }
+
+        var parent = depth == 0 ? HANDLER_TREE : nodes[depth - 1];
+        Node node = null;
+        Handler handler = null;
+        if (parent != null) {
+            node = parent.children.get(tagName);
+            handler = node != null && node.handler != null ? node.handler : parent.wildcard;
+        }
+
+        if (node == null && handler == null) {
+            skipped = 1;
+            return;
+        }
 
-        this.handlers = this.handlers.prepend(Optional.ofNullable(handler));
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            handlers = Arrays.copyOf(handlers, depth * 2);
+        }
+        nodes[depth] = node;
+        handlers[depth] = handler;
+        depth++;
 
         switch (handler) {
             case SectionHandler s -> s.start(state);
@@ -53,35 +81,43 @@ final class PomParser extends DefaultHandler {
 
     @Override
     public void characters(char[] ch, int start, int length) {
-        boolean readContent = this.handlers.headOption()
-                .flatMap(handlerOpt -> handlerOpt.map(handler ->
-                        handler instanceof PropertyHandler || handler instanceof ContentHandler
-                ))
-                .orElse(false);
+        if (skipped > 0) {
+            return;
+        }
 
-        if (readContent) {
+        var handler = depth == 0 ? null : handlers[depth - 1];
+        if (handler instanceof PropertyHandler || handler instanceof ContentHandler) {
             characterBuffer.append(ch, start, length);
         }
     }
 
     @Override
     public void endElement(String _uri, String _localName, String tagName) {
-        var handlerOpt = handlers.headOption().flatMap(Function.identity());
-        // Calling endElement implies startElement was called,
-        // which means a non-empty paths and handlers
-        this.paths = this.paths.assumeNotEmpty().tail();
-        this.handlers = this.handlers.assumeNotEmpty().tail();
-
-        handlerOpt.ifPresent(handler -> {
-            switch (handler) {
-                case PropertyHandler p ->
-                        p.content(state, characterBuffer.toString());
-                case ContentHandler c ->
-                        c.content(state, characterBuffer.toString());
-                case SectionHandler s ->
-                        s.end(state);
+        if (skipped > 0) {
+            skipped--;
+            if (skipped == 0) {
+                // Like the end of any other element, this drops the text read so far
+                characterBuffer.setLength(0);
             }
-        });
+            return;
+        }
+
+        // Calling endElement implies startElement was called,
+        // which means a non-empty stack
+        depth--;
+        var handler = handlers[depth];
+        nodes[depth] = null;
+        handlers[depth] = null;
+
+        switch (handler) {
+            case PropertyHandler p ->
+                    p.content(state, characterBuffer.toString());
+            case ContentHandler c ->
+                    c.content(state, characterBuffer.toString());
+            case SectionHandler s ->
+                    s.end(state);
+            case null -> {}
+        }
 
         characterBuffer.setLength(0);
     }
@@ -508,7 +544,21 @@ final class PomParser extends DefaultHandler {
         return handlers;
     }
 
-    private static final Map<LL<String>, Handler> HANDLER_MAP;
+    /**
+     * Element paths with a handler somewhere under them, starting from above the root element,
+     * so that finding the handler for an element is a single lookup from its parent's node.
+     */
+    private static final class Node {
+        final HashMap<String, Node> children = new HashMap<>();
+
+        // Registered for exactly this path.
+        Handler handler = null;
+
+        // Registered for any child not otherwise handled, like the entries under <properties>.
+        Handler wildcard = null;
+    }
+
+    private static final Node HANDLER_TREE;
 
     static {
         List<Handler> handlers = new ArrayList<>();
@@ -574,28 +624,76 @@ final class PomParser extends DefaultHandler {
                         state.profiles.add(profile)
         ));
 
-        HANDLER_MAP = handlers.stream()
-                .collect(Collectors.toUnmodifiableMap(
-                        Handler::path,
-                        handler -> handler
-                ));
+        HANDLER_TREE = new Node();
+        for (var handler : handlers) {
+            var path = handler.path().reverse().toJavaList();
+            var node = HANDLER_TREE;
+            for (var tagName : path.subList(0, path.size() - 1)) {
+                node = node.children.computeIfAbsent(tagName, __ -> new Node());
+            }
+
+            var tagName = path.get(path.size() - 1);
+            if (tagName.equals("*")) {
+                if (node.wildcard != null) {
+                    throw new IllegalStateException("Duplicate handler for " + handler.path());
+                }
+                node.wildcard = handler;
+            }
+            else {
+                node = node.children.computeIfAbsent(tagName, __ -> new Node());
+                if (node.handler != null) {
+                    throw new IllegalStateException("Duplicate handler for " + handler.path());
+                }
+                node.handler = handler;
+            }
+        }
     }
 
     PomInfo pomInfo() {
         return this.state.pomInfo();
     }
 
+    // Making a parser costs about as much as parsing a small POM. Resolution runs on
+    // virtual threads, which come and go too quickly to make a ThreadLocal worth it,
+    // so parsers are pooled instead.
+    private static final ConcurrentLinkedQueue<SAXParser> SAX_PARSERS = new ConcurrentLinkedQueue<>();
+
+    private static final SAXParserFactory SAX_PARSER_FACTORY = SAXParserFactory.newDefaultInstance();
+
+    private static SAXParser saxParser() throws ParserConfigurationException, SAXException {
+        var saxParser = SAX_PARSERS.poll();
+        if (saxParser != null) {
+            return saxParser;
+        }
+        synchronized (SAX_PARSER_FACTORY) {
+            return SAX_PARSER_FACTORY.newSAXParser();
+        }
+    }
+
     static PomInfo parse(String pomString) {
+        try {
+            return parse(new ByteArrayInputStream(pomString.getBytes(StandardCharsets.UTF_8)));
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof SAXException || e.getCause() instanceof ParserConfigurationException) {
+                throw new RuntimeException(pomString, e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a POM straight from its bytes, letting the XML declaration decide how they are decoded.
+     */
+    static PomInfo parse(InputStream pom) {
         var pomParser = new PomParser();
-        var factory = SAXParserFactory.newDefaultInstance();
         try {
-            SAXParser saxParser = factory.newSAXParser();
-            saxParser.parse(
-                    new ByteArrayInputStream(pomString.getBytes(StandardCharsets.UTF_8)),
-                    pomParser
-            );
+            var saxParser = saxParser();
+            saxParser.parse(pom, pomParser);
+            // Only parsers which finished cleanly go back in the pool.
+            saxParser.reset();
+            SAX_PARSERS.offer(saxParser);
         } catch (ParserConfigurationException | SAXException e) {
-            throw new RuntimeException(pomString, e);
+            throw new RuntimeException(e);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
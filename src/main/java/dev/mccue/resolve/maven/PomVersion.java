@@ -41,7 +41,7 @@ sealed interface PomVersion {
 
         @Override
         public Version orElseThrow() {
-            return new Version(value);
+            return Version.of(value);
         }
 
         @Override
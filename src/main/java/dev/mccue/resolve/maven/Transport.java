@@ -6,6 +6,7 @@ import org.jspecify.annotations.NullMarked;
 import java.io.InputStream;
 import java.util.List;
 import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
 
 @NullMarked
 @Maven("https://github.com/apache/maven-resolver/blob/466f419fc80734252591a34f29a2fc500de8bff2/maven-resolver-spi/src/main/java/org/eclipse/aether/spi/connector/transport/Transporter.java")
@@ -22,4 +23,33 @@ public interface Transport {
     }
 
     GetFileResult getFile(List<String> pathElements);
+
+    /**
+     * Gets a file without making the caller wait on it.
+     *
+     * <p>
+     *     By default this just calls {@link #getFile(List)} on a new virtual thread.
+     *     Transports which can do better should.
+     * </p>
+     */
+    default CompletableFuture<GetFileResult> getFileAsync(List<String> pathElements) {
+        return CompletableFuture.supplyAsync(
+                () -> getFile(pathElements),
+                task -> Thread.ofVirtual().start(task)
+        );
+    }
+
+    /**
+     * Gets a checksum published next to a file. These are tiny and always read in full right away,
+     * so a transport which limits how many requests are in flight shouldn't make them wait on the
+     * responses for the files themselves, which can stay open for as long as the file takes to read.
+     *
+     * <p>
+     *     By default this just calls {@link #getFileAsync(List)}. If the returned future is cancelled,
+     *     transports should not bother making the request if they haven't yet.
+     * </p>
+     */
+    default CompletableFuture<GetFileResult> getChecksumAsync(List<String> pathElements) {
+        return getFileAsync(pathElements);
+    }
 }
@@ -0,0 +1,91 @@
+package dev.mccue.resolve.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A thread-safe, size bounded map that evicts its least recently used entry
+ * once it holds more than {@code maximumSize} entries.
+ *
+ * <p>
+ *     Values are computed outside the lock, so two threads asking for the same
+ *     missing key may both compute it. The first one to finish wins and the other
+ *     result is discarded. Exceptions thrown while computing are not cached.
+ * </p>
+ */
+public final class BoundedCache<K, V> {
+    private final int maximumSize;
+    private final LinkedHashMap<K, V> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > BoundedCache.this.maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public V get(K key, Supplier<? extends V> compute) {
+        synchronized (entries) {
+            var value = entries.get(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+        }
+
+        misses.increment();
+        V value = compute.get();
+        if (maximumSize == 0) {
+            return value;
+        }
+
+        synchronized (entries) {
+            var existing = entries.putIfAbsent(key, value);
+            return existing == null ? value : existing;
+        }
+    }
+
+    public int maximumSize() {
+        return maximumSize;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
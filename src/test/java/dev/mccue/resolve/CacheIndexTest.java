@@ -0,0 +1,162 @@
+package dev.mccue.resolve;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static dev.mccue.resolve.StandardCacheTest.lastUsed;
+import static dev.mccue.resolve.StandardCacheTest.text;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheIndexTest {
+    static CacheKey key(String name) {
+        return new CacheKey(List.of("org", "example", name, "1", name + "-1.jar"));
+    }
+
+    @Test
+    public void testIndexedFilesAreFoundWithoutTheFileSystem() throws Exception {
+        var cache = StandardCache.at(Files.createTempDirectory("cache")).withIndex(true);
+
+        var path = cache.fetchIfAbsent(key("a"), text("aaaa"));
+        var entry = cache.indexed(key("a"));
+        assertNotNull(entry);
+        assertEquals(4, entry.size());
+        assertArrayEquals(
+                MessageDigest.getInstance("SHA-256").digest("aaaa".getBytes(StandardCharsets.UTF_8)),
+                entry.sha256()
+        );
+
+        // Only the index is consulted, so removing the file behind its back goes unnoticed.
+        Files.delete(path);
+        assertTrue(cache.probablyContains(key("a")));
+        assertFalse(cache.withIndex(false).probablyContains(key("a")));
+        assertNull(cache.indexed(key("b")));
+    }
+
+    @Test
+    public void testIndexIsBuiltFromExistingFiles() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var unindexed = Cache.standard(root);
+        unindexed.fetchIfAbsent(key("a"), text("aaaa"));
+        unindexed.fetchIfAbsent(key("b"), text("bb"));
+
+        var index = new CacheIndex(root);
+        assertEquals(2, index.size());
+        var entry = index.get(key("b"));
+        assertNotNull(entry);
+        assertEquals(2, entry.size());
+        assertNull(entry.sha256());
+        assertTrue(Files.exists(root.resolve(CacheIndex.FILE_NAME)));
+    }
+
+    @Test
+    public void testIndexIsSharedWhenOpenedConcurrently() throws Exception {
+        var root = Files.createTempDirectory("cache");
+        var unindexed = Cache.standard(root);
+        unindexed.fetchIfAbsent(key("a"), text("aaaa"));
+
+        var start = new CountDownLatch(1);
+        var opened = new ArrayList<Future<CacheIndex>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 8; i++) {
+                opened.add(executor.submit(() -> {
+                    start.await();
+                    return CacheIndex.forRoot(root);
+                }));
+            }
+            start.countDown();
+        }
+
+        var index = CacheIndex.forRoot(root);
+        for (var future : opened) {
+            assertSame(index, future.get());
+        }
+        assertNotNull(index.get(key("a")));
+    }
+
+    @Test
+    public void testCorruptOrStaleIndexIsRebuilt() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.standard(root);
+        var a = cache.fetchIfAbsent(key("a"), text("aaaa"));
+        cache.fetchIfAbsent(key("b"), text("bb"));
+
+        Files.writeString(root.resolve(CacheIndex.FILE_NAME), "not an index");
+        assertEquals(2, new CacheIndex(root).size());
+
+        // Files removed by hand are noticed when the index is opened.
+        Files.delete(a);
+        var index = new CacheIndex(root);
+        assertNull(index.get(key("a")));
+        assertNotNull(index.get(key("b")));
+    }
+
+    @Test
+    public void testAppendsFromOtherProcessesAreSeen() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var first = new CacheIndex(root);
+        var second = new CacheIndex(root);
+
+        first.present(key("a"), 4, null);
+        assertNull(second.get(key("a")));
+        second.refresh();
+        assertNotNull(second.get(key("a")));
+
+        // A record cut short by a process dying partway through is skipped over.
+        Files.write(root.resolve(CacheIndex.FILE_NAME), new byte[] { 0, 0, 1 }, StandardOpenOption.APPEND);
+        second.present(key("b"), 2, null);
+        first.refresh();
+        assertNotNull(first.get(key("a")));
+        assertNotNull(first.get(key("b")));
+    }
+
+    @Test
+    public void testEvictedFilesAreRemovedFromTheIndex() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = StandardCache.at(root).withIndex(true);
+
+        var a = cache.fetchIfAbsent(key("a"), text("aaaa"));
+        cache.fetchIfAbsent(key("b"), text("bbbb"));
+        lastUsed(a.getParent(), Duration.ofDays(2));
+
+        assertEquals(new StandardCache.Eviction(1, 4), cache.evict(4));
+        assertNull(cache.indexed(key("a")));
+        assertNotNull(cache.indexed(key("b")));
+        assertEquals("aaaa", Files.readString(cache.fetchIfAbsent(key("a"), text("aaaa"))));
+
+        // Eviction without the index removes it, so it gets rebuilt.
+        lastUsed(a.getParent(), Duration.ofDays(2));
+        assertEquals(new StandardCache.Eviction(1, 4), cache.withIndex(false).evict(4));
+        assertFalse(cache.probablyContains(key("a")));
+        assertTrue(cache.probablyContains(key("b")));
+        assertTrue(Files.exists(root.resolve(Path.of(CacheIndex.FILE_NAME))));
+    }
+
+    @Test
+    public void testIndexRemovedBeforeEvictionIsRebuilt() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = StandardCache.at(root).withIndex(true);
+
+        var a = cache.fetchIfAbsent(key("a"), text("aaaa"));
+        cache.fetchIfAbsent(key("b"), text("bbbb"));
+        lastUsed(a.getParent(), Duration.ofDays(2));
+
+        // Recording the eviction finds the index gone and rebuilds it, which
+        // can't happen while eviction still holds the structure lock.
+        Files.delete(root.resolve(CacheIndex.FILE_NAME));
+        assertEquals(new StandardCache.Eviction(1, 4), cache.evict(4));
+        assertNull(cache.indexed(key("a")));
+        assertNotNull(cache.indexed(key("b")));
+    }
+}
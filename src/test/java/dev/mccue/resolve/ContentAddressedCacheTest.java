@@ -0,0 +1,78 @@
+package dev.mccue.resolve;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static dev.mccue.resolve.StandardCacheTest.text;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentAddressedCacheTest {
+    @Test
+    public void testSameContentsAreStoredOnce() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.contentAddressed(root);
+
+        var central = cache.fetchIfAbsent(
+                new CacheKey(List.of("https", "repo1.maven.org", "maven2", "a.jar")),
+                text("jar")
+        );
+        var mirror = cache.fetchIfAbsent(
+                new CacheKey(List.of("https", "mirror.example.com", "maven2", "a.jar")),
+                text("jar")
+        );
+        var other = cache.fetchIfAbsent(
+                new CacheKey(List.of("https", "mirror.example.com", "maven2", "b.jar")),
+                text("other jar")
+        );
+
+        assertNotEquals(central, mirror);
+        assertEquals("jar", Files.readString(central));
+        assertEquals("jar", Files.readString(mirror));
+        assertEquals("other jar", Files.readString(other));
+        assertTrue(Files.isSameFile(central, mirror));
+        assertFalse(Files.isSameFile(central, other));
+
+        try (var blobs = Files.walk(root.resolve(".blobs").resolve("sha256"))) {
+            assertEquals(2, blobs.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void testGarbageCollectionRemovesUnreferencedBlobs() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.contentAddressed(root);
+
+        var a = cache.fetchIfAbsent(new CacheKey(List.of("x", "a.jar")), text("a"));
+        var b = cache.fetchIfAbsent(new CacheKey(List.of("x", "b.jar")), text("bb"));
+        var c = cache.fetchIfAbsent(new CacheKey(List.of("y", "b.jar")), text("bb"));
+
+        assertEquals(new ContentAddressedCache.GarbageCollection(0, 0), cache.collectGarbage());
+
+        Files.delete(a);
+        Files.delete(b);
+        assertEquals(new ContentAddressedCache.GarbageCollection(1, 1), cache.collectGarbage());
+        assertEquals("bb", Files.readString(c));
+
+        Files.delete(c);
+        assertEquals(new ContentAddressedCache.GarbageCollection(1, 2), cache.collectGarbage());
+
+        // Collected contents can be stored again.
+        var again = cache.fetchIfAbsent(new CacheKey(List.of("x", "a.jar")), text("a"));
+        assertEquals("a", Files.readString(again));
+    }
+
+    @Test
+    public void testFetchReplacesOnlyThatKey() throws IOException {
+        var cache = Cache.contentAddressed(Files.createTempDirectory("cache"));
+
+        var first = cache.fetchIfAbsent(new CacheKey(List.of("x", "maven-metadata.xml")), text("old"));
+        var second = cache.fetchIfAbsent(new CacheKey(List.of("y", "maven-metadata.xml")), text("old"));
+        cache.fetch(new CacheKey(List.of("x", "maven-metadata.xml")), text("new"));
+
+        assertEquals("new", Files.readString(first));
+        assertEquals("old", Files.readString(second));
+    }
+}
@@ -0,0 +1,94 @@
+package dev.mccue.resolve;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static dev.mccue.resolve.StandardCacheTest.text;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LayeredCacheTest {
+    static CacheKey key(String name) {
+        return new CacheKey(List.of("org", "example", name, "1", name + "-1.jar"));
+    }
+
+    static Path bake(CacheKey key, String contents) throws IOException {
+        var root = Files.createTempDirectory("baked");
+        Cache.standard(root).fetchIfAbsent(key, text(contents));
+        return root;
+    }
+
+    static List<Path> files(Path root) throws IOException {
+        try (var files = Files.walk(root)) {
+            return files.sorted().toList();
+        }
+    }
+
+    @Test
+    public void testReadOnlyFilesAreUsedWithoutWriting() throws IOException {
+        var first = bake(key("a"), "first");
+        var second = bake(key("b"), "second");
+        var shadowed = second.resolve(Path.of("org", "example", "a", "1", "a-1.jar"));
+        Files.createDirectories(shadowed.getParent());
+        Files.writeString(shadowed, "shadowed");
+        var writableRoot = Files.createTempDirectory("writable").resolve("cache");
+
+        var before = List.of(files(first), files(second));
+        var cache = Cache.layered(List.of(first, second), Cache.standard(writableRoot));
+
+        Supplier<InputStream> fail = () -> {
+            throw new UncheckedIOException(new IOException("should not be fetched"));
+        };
+        assertEquals("first", Files.readString(cache.fetchIfAbsent(key("a"), fail)));
+        assertEquals("second", new String(cache.fetchBytesIfAbsent(key("b"), fail)));
+        assertTrue(cache.probablyContains(key("a")));
+
+        assertEquals(before, List.of(files(first), files(second)));
+        assertFalse(Files.exists(writableRoot));
+    }
+
+    @Test
+    public void testMissesAreFetchedIntoTheWritableCache() throws IOException {
+        var baked = bake(key("a"), "a");
+        var writableRoot = Files.createTempDirectory("writable");
+        var cache = Cache.layered(List.of(baked), Cache.standard(writableRoot));
+
+        assertFalse(cache.probablyContains(key("b")));
+        var path = cache.fetchIfAbsent(key("b"), text("b"));
+        assertTrue(path.startsWith(writableRoot));
+        assertEquals("b", Files.readString(path));
+        assertTrue(cache.probablyContains(key("b")));
+        assertFalse(Files.exists(baked.resolve(Path.of("org", "example", "b"))));
+    }
+
+    @Test
+    public void testExistingLooksInEveryLayerWithoutCreatingAnything() throws IOException {
+        var baked = bake(key("a"), "a");
+        var writableRoot = Files.createTempDirectory("writable");
+        var cache = Cache.layered(List.of(baked), Cache.standard(writableRoot));
+        cache.fetchIfAbsent(key("b"), text("b"));
+        var before = files(writableRoot);
+
+        assertEquals(baked.resolve(Path.of("org", "example", "a", "1", "a-1.jar")), cache.existing(key("a")).orElseThrow());
+        assertTrue(cache.existing(key("b")).orElseThrow().startsWith(writableRoot));
+        assertTrue(cache.existing(key("c")).isEmpty());
+        assertEquals(before, files(writableRoot));
+    }
+
+    @Test
+    public void testReplacedFilesAreReadFromTheWritableCache() throws IOException {
+        var baked = bake(key("a"), "old");
+        var writableRoot = Files.createTempDirectory("writable");
+        var cache = Cache.layered(List.of(baked), Cache.standard(writableRoot));
+
+        cache.fetch(key("a"), text("new"));
+        assertEquals("new", Files.readString(cache.fetchIfAbsent(key("a"), text("unused"))));
+        assertEquals("old", Files.readString(baked.resolve(Path.of("org", "example", "a", "1", "a-1.jar"))));
+    }
+}
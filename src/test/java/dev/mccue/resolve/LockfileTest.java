@@ -0,0 +1,211 @@
+package dev.mccue.resolve;
+
+import dev.mccue.resolve.maven.MavenRepository;
+import dev.mccue.resolve.maven.PomCache;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LockfileTest {
+    static void writePom(Path root, String artifact, String version, String... dependencies) throws IOException {
+        var dir = root.resolve("org").resolve("example").resolve(artifact).resolve(version);
+        Files.createDirectories(dir);
+        var deps = new StringBuilder();
+        for (var dependency : dependencies) {
+            var parts = dependency.split(":");
+            var exclusions = parts.length < 3 ? "" : """
+                    <exclusions>
+                        <exclusion>
+                            <groupId>org.example</groupId>
+                            <artifactId>%s</artifactId>
+                        </exclusion>
+                    </exclusions>
+                    """.formatted(parts[2]);
+            deps.append("""
+                    <dependency>
+                        <groupId>org.example</groupId>
+                        <artifactId>%s</artifactId>
+                        <version>%s</version>
+                        %s
+                    </dependency>
+                    """.formatted(parts[0], parts[1], exclusions));
+        }
+        Files.writeString(dir.resolve(artifact + "-" + version + ".pom"), """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <modelVersion>4.0.0</modelVersion>
+                    <groupId>org.example</groupId>
+                    <artifactId>%s</artifactId>
+                    <version>%s</version>
+                    <dependencies>%s</dependencies>
+                </project>
+                """.formatted(artifact, version, deps));
+    }
+
+    static String tree(Resolve.Result result) {
+        var out = new ByteArrayOutputStream();
+        result.printTree(new PrintStream(out), List.of());
+        return out.toString();
+    }
+
+    static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testReplayWithoutRepository() throws IOException {
+        var root = Files.createTempDirectory("repo");
+        writePom(root, "a", "1", "b:1", "c:1");
+        writePom(root, "b", "1", "c:2", "d:1");
+        writePom(root, "c", "1");
+        writePom(root, "c", "2", "d:2");
+        writePom(root, "d", "1");
+        writePom(root, "d", "2");
+
+        var repository = MavenRepository.local(root).withPomCache(PomCache.disabled());
+        var lockfile = Files.createTempDirectory("lock").resolve("jresolve.lock");
+
+        var resolved = new Resolve()
+                .addDependency(Dependency.maven("org.example", "a", "1", repository))
+                .addDependencyOverride(Dependency.maven("org.example", "d", "1", repository))
+                .withCache(Cache.standard(Files.createTempDirectory("cache")))
+                .withLockfile(lockfile)
+                .run();
+
+        assertTrue(Files.exists(lockfile));
+
+        delete(root);
+
+        var replayed = new Resolve()
+                .addDependency(Dependency.maven("org.example", "a", "1", repository))
+                .addDependencyOverride(Dependency.maven("org.example", "d", "1", repository))
+                .withCache(Cache.standard(Files.createTempDirectory("cache")))
+                .withLockfile(lockfile)
+                .run();
+
+        assertEquals(resolved.selectedDependencies(), replayed.selectedDependencies());
+        assertEquals(tree(resolved), tree(replayed));
+    }
+
+    @Test
+    public void testSameIdFromDifferentRepositories() throws IOException {
+        // c 1 has different dependencies in each repository. Since a excludes x and b doesn't,
+        // c is expanded again when b's version of it is seen, and both of its manifests are used.
+        var first = Files.createTempDirectory("repo");
+        writePom(first, "a", "1", "c:1:x");
+        writePom(first, "c", "1", "d:1");
+        writePom(first, "d", "1");
+        var second = Files.createTempDirectory("repo");
+        writePom(second, "b", "1", "c:1");
+        writePom(second, "c", "1", "e:1");
+        writePom(second, "e", "1");
+
+        var firstRepository = MavenRepository.local(first).withPomCache(PomCache.disabled());
+        var secondRepository = MavenRepository.local(second).withPomCache(PomCache.disabled());
+        var lockfile = Files.createTempDirectory("lock").resolve("jresolve.lock");
+
+        var resolved = new Resolve()
+                .addDependency(Dependency.maven("org.example", "a", "1", firstRepository))
+                .addDependency(Dependency.maven("org.example", "b", "1", secondRepository))
+                .withCache(Cache.standard(Files.createTempDirectory("cache")))
+                .withLockfile(lockfile)
+                .run();
+
+        assertEquals(
+                List.of("a", "b", "c", "d", "e"),
+                resolved.selectedDependencies().stream()
+                        .map(dependency -> dependency.library().artifact().value())
+                        .sorted()
+                        .toList()
+        );
+
+        delete(first);
+        delete(second);
+
+        var replayed = new Resolve()
+                .addDependency(Dependency.maven("org.example", "a", "1", firstRepository))
+                .addDependency(Dependency.maven("org.example", "b", "1", secondRepository))
+                .withCache(Cache.standard(Files.createTempDirectory("cache")))
+                .withLockfile(lockfile)
+                .run();
+
+        assertEquals(resolved.selectedDependencies(), replayed.selectedDependencies());
+        assertEquals(tree(resolved), tree(replayed));
+    }
+
+    @Test
+    public void testChangedInputsRewriteLockfile() throws IOException {
+        var root = Files.createTempDirectory("repo");
+        writePom(root, "a", "1", "b:1");
+        writePom(root, "a", "2", "b:2");
+        writePom(root, "b", "1");
+        writePom(root, "b", "2");
+
+        var repository = MavenRepository.local(root).withPomCache(PomCache.disabled());
+        var cache = Cache.standard(Files.createTempDirectory("cache"));
+        var lockfile = Files.createTempDirectory("lock").resolve("jresolve.lock");
+
+        new Resolve()
+                .addDependency(Dependency.maven("org.example", "a", "1", repository))
+                .withCache(cache)
+                .withLockfile(lockfile)
+                .run();
+        var first = Files.readString(lockfile);
+
+        var changed = new Resolve()
+                .addDependency(Dependency.maven("org.example", "a", "2", repository))
+                .withCache(cache)
+                .withLockfile(lockfile)
+                .run();
+
+        assertNotEquals(first, Files.readString(lockfile));
+        assertEquals(
+                List.of(new Library("org.example", "a"), new Library("org.example", "b")),
+                changed.selectedDependencies().stream().map(Dependency::library).toList()
+        );
+        assertTrue(changed.selectedDependencies().stream()
+                .allMatch(dependency -> dependency.coordinate().id().toString().contains("version=2")));
+    }
+
+    @Test
+    public void testWriteLockfileMatchesRun() throws IOException {
+        var root = Files.createTempDirectory("repo");
+        writePom(root, "a", "1", "b:1");
+        writePom(root, "b", "1");
+
+        var repository = MavenRepository.local(root).withPomCache(PomCache.disabled());
+        var cache = Cache.standard(Files.createTempDirectory("cache"));
+        var lockDir = Files.createTempDirectory("lock");
+
+        var result = new Resolve()
+                .addDependency(Dependency.maven("org.example", "a", "1", repository))
+                .withCache(cache)
+                .withLockfile(lockDir.resolve("run.lock"))
+                .run();
+        result.writeLockfile(lockDir.resolve("written.lock"));
+
+        assertEquals(
+                Files.readString(lockDir.resolve("run.lock")),
+                Files.readString(lockDir.resolve("written.lock"))
+        );
+        try (var files = Files.list(lockDir)) {
+            assertEquals(
+                    List.of(lockDir.resolve("run.lock"), lockDir.resolve("written.lock")),
+                    files.sorted().toList()
+            );
+        }
+    }
+}
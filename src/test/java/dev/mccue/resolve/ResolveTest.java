@@ -3,12 +3,26 @@ package dev.mccue.resolve;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ResolveTest {
     record FakeManifest(
@@ -479,4 +493,478 @@ public class ResolveTest {
                         .selectedCoordinateIds()
         );
     }
+
+    record CountingCoordinate(String artifact, int version, Manifest manifest, AtomicInteger fetches)
+            implements Coordinate {
+        @Override
+        public VersionOrdering compareVersions(Coordinate coordinate) {
+            return coordinate instanceof CountingCoordinate counting
+                    ? VersionOrdering.fromInt(Integer.compare(this.version, counting.version))
+                    : VersionOrdering.INCOMPARABLE;
+        }
+
+        @Override
+        public CoordinateId id() {
+            return new FakeCoordinateId(version);
+        }
+
+        @Override
+        public Manifest getManifest(Cache cache) {
+            fetches.incrementAndGet();
+            return manifest;
+        }
+
+        @Override
+        public Path getLibraryLocation(Cache cache) {
+            return Path.of(".", artifact, Integer.toString(version));
+        }
+    }
+
+    @Test
+    public void testManifestFetchedOncePerDependency() {
+        var fetches = new AtomicInteger();
+        Supplier<Dependency> shared = () -> new Dependency(
+                fakeLib("S"),
+                new CountingCoordinate("S", 1, new FakeManifest(List.of()), fetches)
+        );
+
+        new Resolve()
+                .addDependency(fake("A", 1, List.of(shared.get())))
+                .addDependency(fake("B", 1, List.of(shared.get())))
+                .addDependency(fake("C", 1, List.of(fake("D", 1, List.of(shared.get())))))
+                .run();
+
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void testNoPrefetchForTopDependencies() {
+        var fetches = new AtomicInteger();
+        var top = new Dependency(
+                fakeLib("T"),
+                new CountingCoordinate("T", 2, new FakeManifest(List.of()), fetches)
+        );
+        var transitive = new Dependency(
+                fakeLib("T"),
+                new CountingCoordinate("T", 1, new FakeManifest(List.of()), fetches)
+        );
+
+        new Resolve()
+                .addDependency(top)
+                .addDependency(fake("A", 1, List.of(transitive)))
+                .run();
+
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void testOverrideExpandsReplacedManifest() {
+        // An override changes which version is selected, but the dependencies
+        // followed are still the ones of the coordinate it replaced.
+        var resolution = new Resolve()
+                .addDependency(fake("A", 1, List.of(
+                        fake("B", 1, List.of(fake("C", 1)))
+                )))
+                .addDependencyOverride(fake("B", 2, List.of(fake("D", 1))))
+                .run();
+
+        assertEquals(
+                Map.of(
+                        fakeLib("A"), new FakeCoordinateId(1),
+                        fakeLib("B"), new FakeCoordinateId(2),
+                        fakeLib("C"), new FakeCoordinateId(1)
+                ),
+                resolution.versionMap().selectedCoordinateIds()
+        );
+    }
+
+    /*
+    ;; +a1 -> +c1 (excl d) -> +e1 (overridden to e2)
+    ;; +b1 -> +c1 -> +d1
+    ;;             -> e1 (overridden to e2)
+     */
+    @Test
+    public void testDiamondWithOverrideAndExclusionUpdate() {
+        var d1 = fake("D", 1);
+        var e1 = fake("E", 1);
+        var e2 = fake("E", 2);
+        var c1 = fake("C", 1, List.of(d1, e1));
+        var a1 = fake("A", 1, List.of(c1.withExclusions(Exclusions.of(
+                new Exclusion(Group.ALL, new Artifact("D"))
+        ))));
+        var b1 = fake("B", 1, List.of(c1));
+
+        var resolution = new Resolve()
+                .addDependency(a1)
+                .addDependency(b1)
+                .addDependencyOverride(e2)
+                .run();
+
+        // C is only expanded a second time, reaching D, because B's path
+        // reaches it without the exclusion.
+        var one = new FakeCoordinateId(1);
+        var two = new FakeCoordinateId(2);
+        var a = new DependencyId(a1);
+        var b = new DependencyId(b1);
+        var c = new DependencyId(c1);
+        assertEquals(
+                List.of(
+                        new Trace.Entry(List.of(), fakeLib("A"), one, InclusionDecision.NEW_TOP_DEP),
+                        new Trace.Entry(List.of(), fakeLib("B"), one, InclusionDecision.NEW_TOP_DEP),
+                        new Trace.Entry(List.of(a), fakeLib("C"), one, InclusionDecision.NEW_DEP),
+                        new Trace.Entry(List.of(b), fakeLib("C"), one, InclusionDecision.SAME_VERSION),
+                        new Trace.Entry(List.of(a, c), fakeLib("E"), two, InclusionDecision.NEW_DEP),
+                        new Trace.Entry(List.of(b, c), fakeLib("D"), one, InclusionDecision.NEW_DEP),
+                        new Trace.Entry(List.of(b, c), fakeLib("E"), two, InclusionDecision.SAME_VERSION)
+                ),
+                resolution.trace()
+        );
+        assertEquals(
+                List.of(
+                        new Dependency(fakeLib("A"), a1.coordinate()),
+                        new Dependency(fakeLib("B"), b1.coordinate()),
+                        new Dependency(fakeLib("C"), c1.coordinate()),
+                        new Dependency(fakeLib("E"), e2.coordinate()),
+                        new Dependency(fakeLib("D"), d1.coordinate())
+                ),
+                resolution.selectedDependencies()
+        );
+    }
+
+    record ThreadRecordingCoordinate(String artifact, int version, Set<Thread> threads) implements Coordinate {
+        @Override
+        public VersionOrdering compareVersions(Coordinate coordinate) {
+            return coordinate instanceof ThreadRecordingCoordinate recording
+                    ? VersionOrdering.fromInt(Integer.compare(this.version, recording.version))
+                    : VersionOrdering.INCOMPARABLE;
+        }
+
+        @Override
+        public CoordinateId id() {
+            return new FakeCoordinateId(version);
+        }
+
+        @Override
+        public Manifest getManifest(Cache cache) {
+            threads.add(Thread.currentThread());
+            return Manifest.EMPTY;
+        }
+
+        @Override
+        public Path getLibraryLocation(Cache cache) {
+            threads.add(Thread.currentThread());
+            return Path.of(".", artifact, Integer.toString(version));
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsByDefault() {
+        var threads = ConcurrentHashMap.<Thread>newKeySet();
+        var resolve = new Resolve()
+                .addDependency(new Dependency(fakeLib("A"), new ThreadRecordingCoordinate("A", 1, threads)))
+                .addDependency(new Dependency(fakeLib("B"), new ThreadRecordingCoordinate("B", 1, threads)));
+
+        // Fetch resolves before downloading, so this is two manifests and then two libraries
+        resolve.fetch().withCache(null).run();
+
+        assertEquals(4, threads.size());
+        assertTrue(threads.stream().allMatch(Thread::isVirtual));
+    }
+
+    @Test
+    public void testGivenExecutorIsNotShutDown() throws InterruptedException {
+        var threads = ConcurrentHashMap.<Thread>newKeySet();
+        var executorService = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                new Resolve()
+                        .addDependency(new Dependency(fakeLib("A"), new ThreadRecordingCoordinate("A", 1, threads)))
+                        .withExecutorService(executorService)
+                        .run();
+            }
+
+            assertFalse(executorService.isShutdown());
+            assertTrue(threads.stream().noneMatch(Thread::isVirtual));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testFetchedLibrariesAreReportedAsTheyComplete() {
+        var threads = ConcurrentHashMap.<Thread>newKeySet();
+        var fetched = new ConcurrentLinkedQueue<Fetch.Fetched>();
+        var result = new Resolve()
+                .addDependency(new Dependency(fakeLib("A"), new ThreadRecordingCoordinate("A", 1, threads)))
+                .addDependency(new Dependency(fakeLib("B"), new ThreadRecordingCoordinate("B", 2, threads)))
+                .fetch()
+                .withCache(null)
+                .onFetched(fetched::add)
+                .run();
+
+        assertEquals(
+                Set.of(
+                        new Fetch.Fetched(fakeLib("A"), Fetch.Fetched.Kind.LIBRARY, Path.of(".", "A", "1")),
+                        new Fetch.Fetched(fakeLib("B"), Fetch.Fetched.Kind.LIBRARY, Path.of(".", "B", "2"))
+                ),
+                Set.copyOf(fetched)
+        );
+        assertEquals(2, fetched.size());
+        assertEquals(result.libraries().size(), fetched.size());
+    }
+
+    record HookedCoordinate(
+            String artifact,
+            int version,
+            List<Dependency> dependencies,
+            Runnable beforeManifest,
+            Set<Path> downloaded
+    ) implements Coordinate {
+        @Override
+        public VersionOrdering compareVersions(Coordinate coordinate) {
+            return coordinate instanceof HookedCoordinate hooked
+                    ? VersionOrdering.fromInt(Integer.compare(this.version, hooked.version))
+                    : VersionOrdering.INCOMPARABLE;
+        }
+
+        @Override
+        public CoordinateId id() {
+            return new FakeCoordinateId(version);
+        }
+
+        @Override
+        public Manifest getManifest(Cache cache) {
+            beforeManifest.run();
+            return new FakeManifest(dependencies);
+        }
+
+        @Override
+        public Path getLibraryLocation(Cache cache) {
+            var path = Path.of(".", artifact, Integer.toString(version));
+            downloaded.add(path);
+            return path;
+        }
+    }
+
+    @Test
+    public void testLibrariesDownloadDuringResolution() {
+        var downloaded = ConcurrentHashMap.<Path>newKeySet();
+        var overlapped = new AtomicBoolean();
+
+        // B's manifest is only available once A has been downloaded, which
+        // can only happen if downloading doesn't wait for resolution to finish.
+        Runnable waitForA = () -> {
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (System.nanoTime() < deadline) {
+                if (downloaded.contains(Path.of(".", "A", "1"))) {
+                    overlapped.set(true);
+                    return;
+                }
+                Thread.onSpinWait();
+            }
+        };
+        Runnable nothing = () -> {};
+
+        var c2 = new Dependency(fakeLib("C"), new HookedCoordinate("C", 2, List.of(), nothing, downloaded));
+        var c1 = new Dependency(fakeLib("C"), new HookedCoordinate("C", 1, List.of(), nothing, downloaded));
+        var b1 = new Dependency(fakeLib("B"), new HookedCoordinate("B", 1, List.of(c2), waitForA, downloaded));
+        var a1 = new Dependency(fakeLib("A"), new HookedCoordinate("A", 1, List.of(b1, c1), nothing, downloaded));
+
+        var fetched = new ConcurrentLinkedQueue<Fetch.Fetched>();
+        var result = new Resolve()
+                .addDependency(a1)
+                .fetch()
+                .withCache(null)
+                .onFetched(fetched::add)
+                .run();
+
+        assertTrue(overlapped.get());
+        assertEquals(
+                Map.of(
+                        fakeLib("A"), Path.of(".", "A", "1"),
+                        fakeLib("B"), Path.of(".", "B", "1"),
+                        fakeLib("C"), Path.of(".", "C", "2")
+                ),
+                result.libraries()
+        );
+        // C 1 was picked before C 2 superseded it, so it may or may not have been downloaded,
+        // but it is never reported.
+        assertEquals(
+                Set.of(Path.of(".", "A", "1"), Path.of(".", "B", "1"), Path.of(".", "C", "2")),
+                fetched.stream().map(Fetch.Fetched::path).collect(Collectors.toSet())
+        );
+    }
+
+    record SlowDownloadCoordinate(String artifact, int version, Runnable download) implements Coordinate {
+        @Override
+        public VersionOrdering compareVersions(Coordinate coordinate) {
+            return coordinate instanceof SlowDownloadCoordinate slow
+                    ? VersionOrdering.fromInt(Integer.compare(this.version, slow.version))
+                    : VersionOrdering.INCOMPARABLE;
+        }
+
+        @Override
+        public CoordinateId id() {
+            return new FakeCoordinateId(version);
+        }
+
+        @Override
+        public Manifest getManifest(Cache cache) {
+            return Manifest.EMPTY;
+        }
+
+        @Override
+        public Path getLibraryLocation(Cache cache) {
+            download.run();
+            return Path.of(".", artifact, Integer.toString(version));
+        }
+    }
+
+    @Test
+    public void testReplacedDownloadsAreInterrupted() throws InterruptedException {
+        var downloaded = ConcurrentHashMap.<Path>newKeySet();
+        var started = new CountDownLatch(1);
+        var interrupted = new CountDownLatch(1);
+
+        // C 1 starts downloading and never finishes unless interrupted. B's manifest, which
+        // brings in C 2, is only available once that download has started.
+        Runnable never = () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new RuntimeException(e);
+            }
+        };
+        Runnable waitForC1 = () -> {
+            try {
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+
+        var c2 = new Dependency(fakeLib("C"), new SlowDownloadCoordinate("C", 2, () -> {}));
+        var c1 = new Dependency(fakeLib("C"), new SlowDownloadCoordinate("C", 1, never));
+        var b1 = new Dependency(fakeLib("B"), new HookedCoordinate("B", 1, List.of(c2), waitForC1, downloaded));
+        var a1 = new Dependency(fakeLib("A"), new HookedCoordinate("A", 1, List.of(b1, c1), () -> {}, downloaded));
+
+        var result = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> new Resolve()
+                .addDependency(a1)
+                .fetch()
+                .withCache(null)
+                .run());
+
+        assertEquals(Path.of(".", "C", "2"), result.libraries().get(fakeLib("C")));
+        // A cancelled task no longer holds up closing the executor, so it may still be finishing.
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDownloadAfterResolution() {
+        var downloaded = ConcurrentHashMap.<Path>newKeySet();
+        var c2 = new Dependency(fakeLib("C"), new HookedCoordinate("C", 2, List.of(), () -> {}, downloaded));
+        var c1 = new Dependency(fakeLib("C"), new HookedCoordinate("C", 1, List.of(), () -> {}, downloaded));
+        var b1 = new Dependency(fakeLib("B"), new HookedCoordinate("B", 1, List.of(c2), () -> {}, downloaded));
+        var a1 = new Dependency(fakeLib("A"), new HookedCoordinate("A", 1, List.of(b1, c1), () -> {}, downloaded));
+
+        new Resolve()
+                .addDependency(a1)
+                .fetch()
+                .withCache(null)
+                .downloadDuringResolution(false)
+                .run();
+
+        assertEquals(
+                Set.of(Path.of(".", "A", "1"), Path.of(".", "B", "1"), Path.of(".", "C", "2")),
+                downloaded
+        );
+    }
+
+    @Test
+    public void testManifestsAreFetchedPerCoordinate() {
+        var downloaded = ConcurrentHashMap.<Path>newKeySet();
+        var prefetched = new CountDownLatch(1);
+        Runnable nothing = () -> {};
+
+        // Both coordinates for S have the same id, but not the same manifest. A's manifest
+        // only comes back once S from B has been prefetched, so a manifest looked up by id
+        // alone would be the wrong one.
+        Runnable waitForPrefetch = () -> {
+            try {
+                assertTrue(prefetched.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        var sx = new Dependency(fakeLib("S"), new HookedCoordinate("S", 1, List.of(fake("X", 1)), nothing, downloaded));
+        var sy = new Dependency(fakeLib("S"), new HookedCoordinate("S", 1, List.of(fake("Y", 1)), prefetched::countDown, downloaded));
+        var a = new Dependency(fakeLib("A"), new HookedCoordinate("A", 1, List.of(sx), waitForPrefetch, downloaded));
+        var b = new Dependency(fakeLib("B"), new HookedCoordinate("B", 1, List.of(sy), nothing, downloaded));
+
+        var resolution = new Resolve()
+                .addDependency(a)
+                .addDependency(b)
+                .run();
+
+        assertEquals(
+                Map.of(
+                        fakeLib("A"), new FakeCoordinateId(1),
+                        fakeLib("B"), new FakeCoordinateId(1),
+                        fakeLib("S"), new FakeCoordinateId(1),
+                        fakeLib("X"), new FakeCoordinateId(1)
+                ),
+                resolution.versionMap().selectedCoordinateIds()
+        );
+    }
+
+    @Test
+    public void testUnneededPrefetchesAreCancelled() throws InterruptedException {
+        var downloaded = ConcurrentHashMap.<Path>newKeySet();
+        var started = new CountDownLatch(1);
+        var interrupted = new CountDownLatch(1);
+        Runnable nothing = () -> {};
+
+        // S from B has the same version as S from A, so its manifest is prefetched but never
+        // used. Its fetch only ends when interrupted, so resolution can only finish if it is.
+        // A's manifest waits for that fetch to start, so it is running by the time it is cancelled.
+        Runnable never = () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new RuntimeException(e);
+            }
+        };
+        var sx = new Dependency(fakeLib("S"), new HookedCoordinate("S", 1, List.of(fake("X", 1)), nothing, downloaded));
+        Runnable waitForStart = () -> {
+            try {
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        var sy = new Dependency(fakeLib("S"), new HookedCoordinate("S", 1, List.of(fake("Y", 1)), never, downloaded));
+        var a = new Dependency(fakeLib("A"), new HookedCoordinate("A", 1, List.of(sx), waitForStart, downloaded));
+        var b = new Dependency(fakeLib("B"), new HookedCoordinate("B", 1, List.of(sy), nothing, downloaded));
+
+        var resolution = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> new Resolve()
+                .addDependency(a)
+                .addDependency(b)
+                .run());
+
+        assertEquals(
+                Map.of(
+                        fakeLib("A"), new FakeCoordinateId(1),
+                        fakeLib("B"), new FakeCoordinateId(1),
+                        fakeLib("S"), new FakeCoordinateId(1),
+                        fakeLib("X"), new FakeCoordinateId(1)
+                ),
+                resolution.versionMap().selectedCoordinateIds()
+        );
+        // A cancelled task no longer holds up closing the executor, so it may still be finishing.
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
 }
@@ -0,0 +1,276 @@
+package dev.mccue.resolve;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StandardCacheTest {
+    static Supplier<InputStream> text(String text) {
+        return () -> new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDifferentFilesDoNotWaitOnEachOther() throws Exception {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.standard(root);
+
+        var slowKey = new CacheKey(List.of("org", "example", "slow.jar"));
+        var fastKey = new CacheKey(List.of("org", "example", "fast.jar"));
+
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var slow = executor.submit(() -> cache.fetchIfAbsent(slowKey, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return text("slow").get();
+            }));
+
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            var fast = executor.submit(() -> cache.fetchIfAbsent(fastKey, text("fast")));
+            assertEquals("fast", Files.readString(fast.get(10, TimeUnit.SECONDS)));
+
+            release.countDown();
+            assertEquals("slow", Files.readString(slow.get(10, TimeUnit.SECONDS)));
+        }
+    }
+
+    @Test
+    public void testFailedDownloadLeavesNothingBehind() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.standard(root);
+        var key = new CacheKey(List.of("org", "example", "broken.jar"));
+
+        assertThrows(UncheckedIOException.class, () -> cache.fetchIfAbsent(key, () -> new InputStream() {
+            int remaining = 10;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- <= 0) {
+                    throw new IOException("Connection reset");
+                }
+                return 'a';
+            }
+        }));
+
+        assertFalse(cache.probablyContains(key));
+        try (var files = Files.list(root.resolve("org").resolve("example"))) {
+            // Only the lock file for the entry is kept around.
+            assertEquals(
+                    List.of(".broken.jar.lock"),
+                    files.map(file -> file.getFileName().toString()).toList()
+            );
+        }
+
+        assertEquals("fixed", Files.readString(cache.fetchIfAbsent(key, text("fixed"))));
+    }
+
+    @Test
+    public void testStructureLockFileIsKept() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.standard(root);
+
+        cache.fetchIfAbsent(new CacheKey(List.of("a", "b.jar")), text("b"));
+        cache.fetchIfAbsent(new CacheKey(List.of("c", "d.jar")), text("d"));
+
+        assertTrue(Files.exists(root.resolve(".structure.lock")));
+        assertEquals("b", Files.readString(root.resolve(Path.of("a", "b.jar"))));
+        assertEquals("d", Files.readString(root.resolve(Path.of("c", "d.jar"))));
+    }
+
+    @Test
+    public void testCachedFilesAreReadWithoutLocking() throws Exception {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.standard(root);
+        var key = new CacheKey(List.of("org", "example", "a.jar"));
+        cache.fetchIfAbsent(key, text("a"));
+
+        var locked = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var holder = Thread.ofVirtual().start(() -> {
+            var lock = StandardCache.lockKey(root.resolve("org/example/a.jar"));
+            try {
+                locked.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                lock.release();
+            }
+        });
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            var path = executor.submit(() -> cache.fetchIfAbsent(key, () -> {
+                throw new AssertionError("Should not download");
+            }));
+            assertEquals("a", Files.readString(path.get(10, TimeUnit.SECONDS)));
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    public void testStaleTempFilesAreCleanedUp() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = Cache.standard(root);
+        var directory = Files.createDirectories(root.resolve("org").resolve("example"));
+
+        var stale = Files.writeString(directory.resolve(".a.jar123.part"), "aaa");
+        Files.setLastModifiedTime(stale, FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+        var inProgress = Files.writeString(directory.resolve(".a.jar456.part"), "aaa");
+
+        cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "a.jar")), text("a"));
+
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(inProgress));
+        assertEquals("a", Files.readString(directory.resolve("a.jar")));
+    }
+
+    /**
+     * Fetches a file from a directory into a cache, noting each time it actually
+     * has to copy the file. Run in its own JVM by {@link #testProcessesShareDownloads()}.
+     */
+    public static final class Worker {
+        public static void main(String[] args) throws Exception {
+            var cache = Cache.standard(Path.of(args[0]));
+            var repository = Path.of(args[1]);
+            var downloads = Path.of(args[2]);
+            var go = Path.of(args[3]);
+
+            while (!Files.exists(go)) {
+                Thread.sleep(10);
+            }
+
+            var path = cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "a.jar")), () -> {
+                try {
+                    Files.writeString(
+                            downloads,
+                            ProcessHandle.current().pid() + "\n",
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND
+                    );
+                    // Give the other processes time to pile up behind this one.
+                    Thread.sleep(500);
+                    return Files.newInputStream(repository.resolve("a.jar"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            System.out.println(Files.readString(path).length());
+        }
+    }
+
+    @Test
+    public void testProcessesShareDownloads() throws Exception {
+        var root = Files.createTempDirectory("cache");
+        var repository = Files.createTempDirectory("repo");
+        Files.writeString(repository.resolve("a.jar"), "a".repeat(100_000));
+        var scratch = Files.createTempDirectory("scratch");
+        var downloads = scratch.resolve("downloads");
+        var go = scratch.resolve("go");
+
+        var classPath = String.join(
+                File.pathSeparator,
+                Path.of(Worker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString(),
+                Path.of(Cache.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString()
+        );
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+
+        var processes = new ArrayList<Process>();
+        for (int i = 0; i < 4; i++) {
+            processes.add(new ProcessBuilder(
+                    java, "-cp", classPath, Worker.class.getName(),
+                    root.toString(), repository.toString(), downloads.toString(), go.toString()
+            ).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+        }
+        Files.createFile(go);
+
+        for (var process : processes) {
+            assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue());
+            assertEquals(
+                    "100000",
+                    new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).strip()
+            );
+        }
+
+        assertEquals(1, Files.readAllLines(downloads).size());
+    }
+
+    static void lastUsed(Path directory, Duration ago) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (var file : files.toList()) {
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(ago)));
+            }
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDirectoriesAreEvicted() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = StandardCache.at(root);
+
+        var a = cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "a", "1", "a-1.jar")), text("aaaa"));
+        var b = cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "b", "1", "b-1.jar")), text("bbbb"));
+        var c = cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "c", "1", "c-1.jar")), text("cccc"));
+        lastUsed(a.getParent(), Duration.ofDays(3));
+        lastUsed(b.getParent(), Duration.ofDays(2));
+        lastUsed(c.getParent(), Duration.ofDays(1));
+
+        assertEquals(new StandardCache.Eviction(2, 8), cache.evict(4));
+
+        assertFalse(Files.exists(root.resolve(Path.of("org", "example", "a"))));
+        assertFalse(Files.exists(root.resolve(Path.of("org", "example", "b"))));
+        assertEquals("cccc", Files.readString(c));
+
+        // Evicted files are fetched again as normal.
+        assertEquals("aaaa", Files.readString(
+                cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "a", "1", "a-1.jar")), text("aaaa"))
+        ));
+    }
+
+    @Test
+    public void testKeptAndRecentlyUsedFilesAreNotEvicted() throws IOException {
+        var root = Files.createTempDirectory("cache");
+        var cache = StandardCache.at(root);
+
+        var a = cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "a", "1", "a-1.jar")), text("aaaa"));
+        var b = cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "b", "1", "b-1.jar")), text("bbbb"));
+        var c = cache.fetchIfAbsent(new CacheKey(List.of("org", "example", "c", "1", "c-1.jar")), text("cccc"));
+        lastUsed(a.getParent(), Duration.ofDays(3));
+        lastUsed(b.getParent(), Duration.ofDays(2));
+
+        assertEquals(new StandardCache.Eviction(1, 4), cache.evict(0, List.of(a)));
+
+        assertTrue(Files.exists(a));
+        assertFalse(Files.exists(b));
+        assertTrue(Files.exists(c));
+    }
+}
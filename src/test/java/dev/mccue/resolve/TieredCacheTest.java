@@ -0,0 +1,93 @@
+package dev.mccue.resolve;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.mccue.resolve.StandardCacheTest.text;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredCacheTest {
+    static CacheKey key(String name) {
+        return new CacheKey(List.of("org", "example", name));
+    }
+
+    static String read(Cache cache, CacheKey key, String contents) {
+        return new String(cache.fetchBytesIfAbsent(key, text(contents)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSmallFilesAreServedFromMemory() throws IOException {
+        var disk = Cache.standard(Files.createTempDirectory("cache"));
+        var hits = new AtomicInteger();
+        var cache = Cache.tiered(disk, 1024).withMetrics(new TieredCache.Metrics() {
+            @Override
+            public void hit(CacheKey key, long bytes) {
+                hits.incrementAndGet();
+            }
+        });
+
+        assertEquals("pom", read(cache, key("a.pom"), "pom"));
+        var path = disk.fetchIfAbsent(key("a.pom"), text("pom"));
+        Files.writeString(path, "changed on disk");
+
+        assertEquals("pom", read(cache, key("a.pom"), "pom"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(1, hits.get());
+        assertEquals(3, cache.residentBytes());
+        assertEquals(0.5, cache.hitRatio());
+    }
+
+    @Test
+    public void testLargeFilesStayOnDisk() throws IOException {
+        var cache = Cache.tiered(Cache.standard(Files.createTempDirectory("cache")), 1024)
+                .withMaximumEntryBytes(4);
+
+        assertEquals("12345", read(cache, key("a.jar"), "12345"));
+        assertEquals("12345", read(cache, key("a.jar"), "12345"));
+        assertEquals(0, cache.hits());
+        assertEquals(0, cache.residentBytes());
+
+        var path = cache.fetchIfAbsent(key("b.jar"), text("jar"));
+        assertEquals("jar", Files.readString(path));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        var removed = new ArrayList<CacheKey>();
+        var cache = Cache.tiered(Cache.standard(Files.createTempDirectory("cache")), 10)
+                .withMetrics(new TieredCache.Metrics() {
+                    @Override
+                    public void removed(CacheKey key, long bytes, long residentBytes) {
+                        removed.add(key);
+                    }
+                });
+
+        read(cache, key("a"), "aaaa");
+        read(cache, key("b"), "bbbb");
+        read(cache, key("a"), "aaaa");
+        read(cache, key("c"), "cccc");
+
+        assertEquals(List.of(key("b")), removed);
+        assertEquals(8, cache.residentBytes());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    public void testReplacedFilesAreNotServedStale() throws IOException {
+        var cache = Cache.tiered(Cache.standard(Files.createTempDirectory("cache")), 1024);
+
+        assertEquals("old", read(cache, key("maven-metadata.xml"), "old"));
+        cache.fetch(key("maven-metadata.xml"), text("new"));
+
+        assertEquals("new", read(cache, key("maven-metadata.xml"), "unused"));
+        assertEquals(3, cache.residentBytes());
+    }
+}
@@ -2,7 +2,11 @@ package dev.mccue.resolve;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class VersionTest {
@@ -12,4 +16,36 @@ public class VersionTest {
         assertTrue(new Version("1.7").compareTo(new Version("1.8")) < 0);
         assertTrue(new Version("1.8").compareTo(new Version("1.7")) > 0);
     }
+
+    @Test
+    public void versionsAreInterned() {
+        assertSame(Version.of("1.7"), Version.of("1.7"));
+        assertNotSame(Version.of("1.7"), new Version("1.7"));
+        assertEquals(Version.of("1.7"), new Version("1.7"));
+
+        // Different strings for the same version are still equal, just not the same instance.
+        assertNotSame(Version.of("1.7"), Version.of("1.7.0"));
+        assertEquals(Version.of("1.7"), Version.of("1.7.0"));
+        assertEquals("1.7.0", Version.of("1.7.0").toString());
+    }
+
+    @Test
+    public void numericVersionsCompareLikeAnyOther() {
+        var versions = List.of(
+                "1", "1.0", "1.0.0", "1.0.1", "1.1", "1.01", "1.10", "1.9.9", "2", "2.0.0.1",
+                "0", "0.0.1", "10", "1.2.3.4.5", "999999999", "1000000000", "1000000000.1",
+                "18446744073709551616", "1.0-SNAPSHOT", "1-rc1", "1.0.0-beta"
+        );
+        for (var a : versions) {
+            for (var b : versions) {
+                var these = new Version(a);
+                var those = new Version(b);
+                assertEquals(
+                        Integer.signum(these.compareItems(those)),
+                        Integer.signum(these.compareTo(those)),
+                        a + " vs " + b
+                );
+            }
+        }
+    }
 }
@@ -0,0 +1,245 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.Artifact;
+import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.Group;
+import dev.mccue.resolve.Version;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChecksumPolicyTest {
+    // sha1 and sha256 of "jar"
+    static final String SHA_1 = "f92e777f4341930bad9b2422283c4680d00dbc06";
+    static final String SHA_256 = "0163f1eea7894350060624d315234d40c508ab251ba121714e234503045faadd";
+
+    static Path repository(String jar) throws IOException {
+        var root = Files.createTempDirectory("repo");
+        var dir = Files.createDirectories(root.resolve(Path.of("org", "example", "a", "1")));
+        Files.writeString(dir.resolve("a-1.jar"), jar);
+        Files.writeString(dir.resolve("a-1.pom"), """
+                <project>
+                    <groupId>org.example</groupId>
+                    <artifactId>a</artifactId>
+                    <version>1</version>
+                </project>
+                """);
+        return root;
+    }
+
+    static Path fetch(MavenRepository repository, Cache cache) {
+        return new MavenCoordinate(
+                new Group("org.example"),
+                new Artifact("a"),
+                new Version("1"),
+                List.of(repository)
+        ).getLibraryLocation(cache);
+    }
+
+    static Path jar(Path root) {
+        return root.resolve(Path.of("org", "example", "a", "1", "a-1.jar"));
+    }
+
+    @Test
+    public void testMatchingChecksumIsAccepted() throws IOException {
+        var root = repository("jar");
+        Files.writeString(Path.of(jar(root) + ".sha1"), SHA_1.toUpperCase() + "  a-1.jar\n");
+
+        var repository = MavenRepository.local(root).withChecksumPolicy(ChecksumPolicy.FAIL);
+        assertEquals("jar", Files.readString(fetch(repository, Cache.standard(Files.createTempDirectory("cache")))));
+    }
+
+    @Test
+    public void testMismatchFailsWithoutCachingAnything() throws IOException {
+        var root = repository("tampered");
+        Files.writeString(Path.of(jar(root) + ".sha1"), SHA_1);
+
+        var cacheRoot = Files.createTempDirectory("cache");
+        var repository = MavenRepository.local(root).withChecksumPolicy(ChecksumPolicy.FAIL);
+        var e = assertThrows(UncheckedIOException.class, () -> fetch(repository, Cache.standard(cacheRoot)));
+        assertInstanceOf(ChecksumFailure.class, e.getCause());
+
+        try (var files = Files.walk(cacheRoot)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().equals("a-1.jar")));
+        }
+    }
+
+    @Test
+    public void testMismatchIsOnlyWarnedAbout() throws IOException {
+        var root = repository("tampered");
+        Files.writeString(Path.of(jar(root) + ".sha1"), SHA_1);
+
+        var repository = MavenRepository.local(root).withChecksumPolicy(ChecksumPolicy.WARN);
+        assertEquals("tampered", Files.readString(fetch(repository, Cache.standard(Files.createTempDirectory("cache")))));
+    }
+
+    @Test
+    public void testSha256IsUsedWithoutSha1() throws IOException {
+        var root = repository("tampered");
+        Files.writeString(Path.of(jar(root) + ".sha256"), SHA_256);
+
+        var repository = MavenRepository.local(root).withChecksumPolicy(ChecksumPolicy.FAIL);
+        var e = assertThrows(UncheckedIOException.class, () -> fetch(repository, Cache.standard(Files.createTempDirectory("cache"))));
+        assertTrue(e.getCause().getMessage().startsWith("SHA-256"), e.getCause().getMessage());
+    }
+
+    @Test
+    public void testMissingChecksum() throws IOException {
+        var root = repository("jar");
+
+        var failing = MavenRepository.local(root).withChecksumPolicy(ChecksumPolicy.FAIL);
+        assertThrows(UncheckedIOException.class, () -> fetch(failing, Cache.standard(Files.createTempDirectory("cache"))));
+
+        var ignoring = MavenRepository.local(root);
+        assertEquals("jar", Files.readString(fetch(ignoring, Cache.standard(Files.createTempDirectory("cache")))));
+    }
+
+    @Test
+    public void testPomsAreChecked() throws IOException {
+        var root = repository("jar");
+        var pom = root.resolve(Path.of("org", "example", "a", "1", "a-1.pom"));
+        Files.writeString(Path.of(pom + ".sha1"), SHA_1);
+
+        var repository = MavenRepository.local(root)
+                .withChecksumPolicy(ChecksumPolicy.FAIL)
+                .withPomCache(PomCache.disabled());
+        var cache = Cache.standard(Files.createTempDirectory("cache"));
+        var e = assertThrows(UncheckedIOException.class, () -> repository.getPomInfo(
+                new Group("org.example"),
+                new Artifact("a"),
+                new Version("1"),
+                cache
+        ));
+        assertInstanceOf(ChecksumFailure.class, e.getCause());
+    }
+
+    @Test
+    public void testChecksumFilesMayNameTheFile() {
+        assertEquals(SHA_1, ChecksummedInputStream.parse(SHA_1.toUpperCase() + " *a-1.jar\r\n"));
+        assertEquals(SHA_1, ChecksummedInputStream.parse("\n" + SHA_1));
+    }
+
+    /**
+     * Serves "jar" for every path except checksum files, which are never found.
+     */
+    static void serve(ServerSocket serverSocket, List<String> requested) {
+        serve(serverSocket, requested, true, () -> {});
+    }
+
+    /**
+     * @param jars Whether anything other than checksum files is found.
+     * @param beforeChecksum Run before answering a request for a checksum file.
+     */
+    static void serve(ServerSocket serverSocket, List<String> requested, boolean jars, Runnable beforeChecksum) {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread.ofVirtual().start(() -> {
+                try (socket) {
+                    var reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    var path = reader.readLine().split(" ")[1];
+                    while (!reader.readLine().isEmpty()) {
+                    }
+                    requested.add(path);
+
+                    var checksum = path.endsWith(".sha1") || path.endsWith(".sha256");
+                    if (checksum) {
+                        beforeChecksum.run();
+                    }
+                    var found = jars && !checksum;
+                    var response = (found ? "HTTP/1.1 200 OK" : "HTTP/1.1 404 Not Found") + "\r\n"
+                                   + "Content-Length: " + (found ? 3 : 0) + "\r\n"
+                                   + "Connection: close\r\n"
+                                   + "\r\n"
+                                   + (found ? "jar" : "");
+                    socket.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testMissingChecksumDoesNotWaitOnTheFile() throws IOException {
+        var requested = new CopyOnWriteArrayList<String>();
+        try (var serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread.ofVirtual().start(() -> serve(serverSocket, requested));
+
+            // With one request allowed at a time, asking for the .sha256 can't wait on the open jar.
+            var repository = MavenRepository.remote("http://127.0.0.1:" + serverSocket.getLocalPort() + "/", 1);
+            var jar = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                try (var inputStream = repository.getArtifact(
+                        new Group("org.example"),
+                        new Artifact("a"),
+                        new Version("1"),
+                        Classifier.EMPTY,
+                        Extension.JAR
+                )) {
+                    return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            });
+            assertEquals("jar", jar);
+            assertEquals(
+                    Set.of("/org/example/a/1/a-1.jar.sha1", "/org/example/a/1/a-1.jar.sha256", "/org/example/a/1/a-1.jar"),
+                    Set.copyOf(requested)
+            );
+            assertEquals(3, requested.size());
+        }
+    }
+
+    @Test
+    public void testMissingFileDoesNotWaitOnChecksums() throws Exception {
+        var requested = new CopyOnWriteArrayList<String>();
+        var release = new CountDownLatch(1);
+        var answered = new CountDownLatch(1);
+        try (var serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // The .sha1 isn't answered until the jar has been found missing.
+            Thread.ofVirtual().start(() -> serve(serverSocket, requested, false, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                answered.countDown();
+            }));
+
+            var repository = MavenRepository.remote("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(
+                    ArtifactNotFound.class,
+                    () -> repository.getArtifact(
+                            new Group("org.example"),
+                            new Artifact("a"),
+                            new Version("1"),
+                            Classifier.EMPTY,
+                            Extension.JAR
+                    )
+            ));
+
+            release.countDown();
+            assertTrue(answered.await(30, TimeUnit.SECONDS));
+            assertFalse(requested.contains("/org/example/a/1/a-1.jar.sha256"));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.Artifact;
+import dev.mccue.resolve.Group;
+import dev.mccue.resolve.Version;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpTransportTest {
+    @Test
+    public void testFailedRequestsGiveBackPermits() throws Exception {
+        // Nothing listens on port 1, so every request fails to connect
+        var transport = new HttpTransport(
+                "http://127.0.0.1:1/",
+                HttpClient::newHttpClient,
+                request -> {},
+                1
+        );
+
+        var results = new ArrayList<CompletableFuture<Transport.GetFileResult>>();
+        for (int i = 0; i < 20; i++) {
+            results.add(transport.getFileAsync(List.of("a", "b.pom")));
+        }
+        for (var result : results) {
+            assertInstanceOf(Transport.GetFileResult.Error.class, result.get(30, TimeUnit.SECONDS));
+        }
+
+        assertInstanceOf(Transport.GetFileResult.Error.class, transport.getFile(List.of("a", "b.pom")));
+    }
+
+    @Test
+    public void testDefaultAsyncDelegatesToGetFile() throws Exception {
+        var root = Files.createTempDirectory("resolve");
+        Files.writeString(root.resolve("a.txt"), "hello");
+        var transport = new FileTransport(root);
+
+        var found = transport.getFileAsync(List.of("a.txt")).get(30, TimeUnit.SECONDS);
+        try (var inputStream = assertInstanceOf(Transport.GetFileResult.Success.class, found).inputStream()) {
+            assertEquals("hello", new String(inputStream.readAllBytes()));
+        }
+
+        assertInstanceOf(
+                Transport.GetFileResult.NotFound.class,
+                transport.getFileAsync(List.of("b.txt")).get(30, TimeUnit.SECONDS)
+        );
+    }
+
+    /**
+     * Answers every request on a connection with "pom", keeping the connection open between them.
+     */
+    static void serveKeepAlive(ServerSocket serverSocket, AtomicInteger connections) {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.incrementAndGet();
+            Thread.ofVirtual().start(() -> {
+                try (socket) {
+                    var reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    String requestLine;
+                    while ((requestLine = reader.readLine()) != null && !requestLine.isEmpty()) {
+                        while (!reader.readLine().isEmpty()) {
+                        }
+                        socket.getOutputStream().write((
+                                "HTTP/1.1 200 OK\r\n"
+                                + "Content-Length: 3\r\n"
+                                + "\r\n"
+                                + "pom"
+                        ).getBytes(StandardCharsets.US_ASCII));
+                    }
+                } catch (IOException e) {
+                    // The client went away
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testDefaultRepositoriesShareConnections() throws Exception {
+        var connections = new AtomicInteger();
+        try (var serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread.ofVirtual().start(() -> serveKeepAlive(serverSocket, connections));
+
+            // Each repository makes its own transport, but they all go through the same client.
+            // Checksums are ignored so that only one request is ever in flight.
+            var url = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+            for (var repository : List.of(
+                    MavenRepository.remote(url).withChecksumPolicy(ChecksumPolicy.IGNORE),
+                    MavenRepository.remote(url, 4).withChecksumPolicy(ChecksumPolicy.IGNORE)
+            )) {
+                for (var artifact : List.of("a", "b")) {
+                    try (var inputStream = repository.getArtifact(
+                            new Group("org.example"),
+                            new Artifact(artifact),
+                            new Version("1"),
+                            Classifier.EMPTY,
+                            Extension.POM
+                    )) {
+                        assertEquals("pom", new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII));
+                    }
+                }
+            }
+        }
+
+        assertEquals(1, connections.get());
+    }
+}
@@ -0,0 +1,197 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.Artifact;
+import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.CacheKey;
+import dev.mccue.resolve.Group;
+import dev.mccue.resolve.Version;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotFoundCacheTest {
+    static final class CountingTransport implements Transport {
+        final FileTransport delegate;
+        final AtomicInteger requests = new AtomicInteger();
+
+        CountingTransport(Path root) {
+            this.delegate = new FileTransport(root);
+        }
+
+        @Override
+        public List<String> cachePrefix() {
+            return delegate.cachePrefix();
+        }
+
+        @Override
+        public GetFileResult getFile(List<String> pathElements) {
+            var fileName = pathElements.get(pathElements.size() - 1);
+            if (!fileName.endsWith(".sha1") && !fileName.endsWith(".sha256")) {
+                requests.incrementAndGet();
+            }
+            return delegate.getFile(pathElements);
+        }
+    }
+
+    static MavenRepository withJar() throws IOException {
+        var root = Files.createTempDirectory("repo");
+        var dir = Files.createDirectories(root.resolve(Path.of("org", "example", "a", "1")));
+        Files.writeString(dir.resolve("a-1.jar"), "jar");
+        return MavenRepository.local(root);
+    }
+
+    static Path fetch(MavenRepository first, MavenRepository second, Cache cache) {
+        return new MavenCoordinate(
+                new Group("org.example"),
+                new Artifact("a"),
+                new Version("1"),
+                List.of(first, second)
+        ).getLibraryLocation(cache);
+    }
+
+    @Test
+    public void testMissIsRemembered() throws IOException {
+        var empty = new CountingTransport(Files.createTempDirectory("repo"));
+        var first = new MavenRepository(empty).withNotFoundCache(NotFoundCache.inMemory(Duration.ofHours(1)));
+        var second = withJar();
+
+        var path = fetch(first, second, Cache.standard(Files.createTempDirectory("cache")));
+        assertEquals("jar", Files.readString(path));
+        assertEquals(1, empty.requests.get());
+
+        fetch(first, second, Cache.standard(Files.createTempDirectory("cache")));
+        assertEquals(1, empty.requests.get());
+    }
+
+    @Test
+    public void testMissIsForgottenAfterTtl() throws Exception {
+        var empty = new CountingTransport(Files.createTempDirectory("repo"));
+        var first = new MavenRepository(empty).withNotFoundCache(NotFoundCache.inMemory(Duration.ofMillis(1)));
+        var second = withJar();
+
+        fetch(first, second, Cache.standard(Files.createTempDirectory("cache")));
+        Thread.sleep(10);
+        fetch(first, second, Cache.standard(Files.createTempDirectory("cache")));
+        assertEquals(2, empty.requests.get());
+    }
+
+    @Test
+    public void testPersistentMissIsSharedThroughCache() throws IOException {
+        var empty = new CountingTransport(Files.createTempDirectory("repo"));
+        var second = withJar();
+        var cache = Cache.standard(Files.createTempDirectory("cache"));
+
+        fetch(
+                new MavenRepository(empty).withNotFoundCache(NotFoundCache.persistent(Duration.ofHours(1))),
+                second,
+                cache
+        );
+        assertEquals(1, empty.requests.get());
+
+        // A fresh NotFoundCache, like another process would have, still sees the marker.
+        var fresh = NotFoundCache.persistent(Duration.ofHours(1));
+        var key = new MavenRepository(empty).cacheKey(
+                new Group("org.example"),
+                new Artifact("a"),
+                new Version("1"),
+                Classifier.EMPTY,
+                Extension.JAR
+        );
+        assertTrue(fresh.isMissing(key, cache));
+        assertFalse(NotFoundCache.persistent(Duration.ofHours(1)).isMissing(key, Cache.standard(
+                Files.createTempDirectory("cache")
+        )));
+    }
+
+    @Test
+    public void testLocalRepositoriesDoNotRememberMisses() throws IOException {
+        var root = Files.createTempDirectory("repo");
+        var local = MavenRepository.local(root);
+        var coordinate = new MavenCoordinate(
+                new Group("org.example"),
+                new Artifact("a"),
+                new Version("1"),
+                List.of(local)
+        );
+
+        assertThrows(ArtifactNotFound.class, () -> coordinate.getLibraryLocation(
+                Cache.standard(Files.createTempDirectory("cache"))
+        ));
+
+        var dir = Files.createDirectories(root.resolve(Path.of("org", "example", "a", "1")));
+        Files.writeString(dir.resolve("a-1.jar"), "jar");
+
+        assertEquals("jar", Files.readString(coordinate.getLibraryLocation(
+                Cache.standard(Files.createTempDirectory("cache"))
+        )));
+    }
+
+    /**
+     * Fails if anything is put into the cache while it is already fetching a file, which
+     * could deadlock against another thread doing the same with the keys the other way around.
+     */
+    static final class NoNestingCache implements Cache {
+        final Cache delegate;
+        boolean fetching = false;
+
+        NoNestingCache(Cache delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data) {
+            assertFalse(fetching, () -> "Nested fetch of " + key);
+            fetching = true;
+            try {
+                return delegate.fetchIfAbsent(key, data);
+            } finally {
+                fetching = false;
+            }
+        }
+
+        @Override
+        public Path fetch(CacheKey key, Supplier<InputStream> data) {
+            assertFalse(fetching, () -> "Nested fetch of " + key);
+            return delegate.fetch(key, data);
+        }
+
+        @Override
+        public boolean probablyContains(CacheKey key) {
+            return delegate.probablyContains(key);
+        }
+
+        @Override
+        public Optional<Path> existing(CacheKey key) {
+            return delegate.existing(key);
+        }
+    }
+
+    @Test
+    public void testMarkerIsWrittenOutsideTheFetch() throws IOException {
+        var empty = new CountingTransport(Files.createTempDirectory("repo"));
+        var cache = new NoNestingCache(Cache.standard(Files.createTempDirectory("cache")));
+
+        var first = new MavenRepository(empty).withNotFoundCache(NotFoundCache.persistent(Duration.ofHours(1)));
+        var path = fetch(first, withJar(), cache);
+        assertEquals("jar", Files.readString(path));
+
+        var key = first.cacheKey(
+                new Group("org.example"),
+                new Artifact("a"),
+                new Version("1"),
+                Classifier.EMPTY,
+                Extension.JAR
+        );
+        assertTrue(cache.probablyContains(NotFoundCache.markerKey(key)));
+    }
+}
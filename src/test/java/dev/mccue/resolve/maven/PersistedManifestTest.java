@@ -0,0 +1,142 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.Artifact;
+import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.Group;
+import dev.mccue.resolve.Version;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static dev.mccue.resolve.maven.PomCacheTest.parent;
+import static dev.mccue.resolve.maven.PomCacheTest.writePom;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistedManifestTest {
+    static String dependencies(String... dependencies) {
+        return "<dependencies>" + String.join("", dependencies) + "</dependencies>";
+    }
+
+    static String dependency(String group, String artifact, String version, String extra) {
+        return """
+                <dependency>
+                    <groupId>%s</groupId>
+                    <artifactId>%s</artifactId>
+                    <version>%s</version>
+                    %s
+                </dependency>
+                """.formatted(group, artifact, version, extra);
+    }
+
+    static PomManifest manifest(MavenRepository repository, Cache cache, List<Scope> scopes) {
+        return repository.getManifest(
+                new Group("org.example"),
+                new Artifact("a"),
+                new Version("1"),
+                cache,
+                scopes,
+                List.of(MavenRepository.central()),
+                Runtime.Version.parse("21"),
+                new Os("linux", "amd64", "6.5.0")
+        );
+    }
+
+    @Test
+    public void testWarmManifestSkipsParsing() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        var cache = Cache.standard(Files.createTempDirectory("cache"));
+        writePom(root, "org.example", "parent", "1", dependencies(
+                dependency("org.example", "b", "2", """
+                        <classifier>linux</classifier>
+                        <exclusions>
+                            <exclusion>
+                                <groupId>org.example</groupId>
+                                <artifactId>c</artifactId>
+                            </exclusion>
+                            <exclusion>
+                                <groupId>*</groupId>
+                                <artifactId>d</artifactId>
+                            </exclusion>
+                        </exclusions>
+                        """)
+        ));
+        writePom(root, "org.example", "a", "1", parent("org.example", "parent", "1") + dependencies(
+                dependency("org.example", "e", "3", "")
+        ));
+
+        var cold = PomCache.bounded(16);
+        var coldManifest = manifest(
+                MavenRepository.local(root).withPomCache(cold).withPersistentManifests(true),
+                cache,
+                List.of(Scope.COMPILE)
+        );
+        assertEquals(2, coldManifest.dependencies().size());
+        assertNotEquals(0, cold.misses());
+
+        var warm = PomCache.bounded(16);
+        var warmManifest = manifest(
+                MavenRepository.local(root).withPomCache(warm).withPersistentManifests(true),
+                cache,
+                List.of(Scope.COMPILE)
+        );
+        assertEquals(coldManifest, warmManifest);
+        assertEquals(0, warm.misses());
+    }
+
+    @Test
+    public void testChangedParentInvalidates() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        var cache = Cache.standard(Files.createTempDirectory("cache"));
+        writePom(root, "org.example", "parent", "1", dependencies(
+                dependency("org.example", "b", "2", "")
+        ));
+        writePom(root, "org.example", "a", "1", parent("org.example", "parent", "1"));
+
+        var repository = MavenRepository.local(root)
+                .withPomCache(PomCache.disabled())
+                .withPersistentManifests(true);
+        assertEquals(1, manifest(repository, cache, List.of(Scope.COMPILE)).dependencies().size());
+
+        var parentKey = repository.cacheKey(
+                new Group("org.example"),
+                new Artifact("parent"),
+                new Version("1"),
+                Classifier.EMPTY,
+                Extension.POM
+        );
+        var changedRoot = Files.createTempDirectory("resolve");
+        writePom(changedRoot, "org.example", "parent", "1", dependencies(
+                dependency("org.example", "b", "2", ""),
+                dependency("org.example", "c", "2", "")
+        ));
+        cache.fetch(parentKey, () -> MavenRepository.local(changedRoot).getArtifact(
+                new Group("org.example"),
+                new Artifact("parent"),
+                new Version("1"),
+                Classifier.EMPTY,
+                Extension.POM
+        ));
+
+        assertEquals(2, manifest(repository, cache, List.of(Scope.COMPILE)).dependencies().size());
+    }
+
+    @Test
+    public void testDifferentScopesAreNotShared() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        var cache = Cache.standard(Files.createTempDirectory("cache"));
+        writePom(root, "org.example", "a", "1", dependencies(
+                dependency("org.example", "b", "2", ""),
+                dependency("org.example", "c", "2", "<scope>runtime</scope>")
+        ));
+
+        var repository = MavenRepository.local(root)
+                .withPomCache(PomCache.disabled())
+                .withPersistentManifests(true);
+
+        assertEquals(1, manifest(repository, cache, List.of(Scope.COMPILE)).dependencies().size());
+        assertEquals(2, manifest(repository, cache, List.of(Scope.COMPILE, Scope.RUNTIME)).dependencies().size());
+        assertEquals(1, manifest(repository, cache, List.of(Scope.COMPILE)).dependencies().size());
+    }
+}
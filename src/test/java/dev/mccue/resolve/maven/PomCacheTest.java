@@ -0,0 +1,196 @@
+package dev.mccue.resolve.maven;
+
+import dev.mccue.resolve.Artifact;
+import dev.mccue.resolve.Group;
+import dev.mccue.resolve.Version;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PomCacheTest {
+    static void writePom(Path root, String group, String artifact, String version, String body) throws IOException {
+        var dir = root.resolve(group.replace('.', '/')).resolve(artifact).resolve(version);
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve(artifact + "-" + version + ".pom"), """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <modelVersion>4.0.0</modelVersion>
+                    <groupId>%s</groupId>
+                    <artifactId>%s</artifactId>
+                    <version>%s</version>
+                    %s
+                </project>
+                """.formatted(group, artifact, version, body));
+    }
+
+    static String parent(String group, String artifact, String version) {
+        return """
+                <parent>
+                    <groupId>%s</groupId>
+                    <artifactId>%s</artifactId>
+                    <version>%s</version>
+                </parent>
+                """.formatted(group, artifact, version);
+    }
+
+    @Test
+    public void testPomInfoIsParsedOnce() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        writePom(root, "org.example", "a", "1", "");
+
+        var pomCache = PomCache.bounded(16);
+        var repository = MavenRepository.local(root).withPomCache(pomCache);
+
+        var first = repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+        var second = repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+
+        assertSame(first, second);
+        assertEquals(1, pomCache.misses());
+        assertEquals(1, pomCache.hits());
+    }
+
+    @Test
+    public void testSharedParentIsParsedOnce() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        writePom(root, "org.example", "parent", "1", "");
+        writePom(root, "org.example", "a", "1", parent("org.example", "parent", "1"));
+        writePom(root, "org.example", "b", "1", parent("org.example", "parent", "1"));
+
+        var pomCache = PomCache.bounded(16);
+        var repository = MavenRepository.local(root).withPomCache(pomCache);
+
+        var a = repository.getAllPoms(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+        var b = repository.getAllPoms(new Group("org.example"), new Artifact("b"), new Version("1"), null);
+        var aAgain = repository.getAllPoms(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+
+        assertSame(a, aAgain);
+        assertEquals(new Artifact("a"), a.child().orElseThrow().artifactId().orElseThrow());
+        assertEquals(new Artifact("b"), b.child().orElseThrow().artifactId().orElseThrow());
+
+        // Two chains, three distinct POMs
+        assertEquals(5, pomCache.misses());
+        // The parent for b, and the chain for a
+        assertEquals(2, pomCache.hits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        writePom(root, "org.example", "a", "1", "");
+        writePom(root, "org.example", "b", "1", "");
+
+        var pomCache = PomCache.bounded(1);
+        var repository = MavenRepository.local(root).withPomCache(pomCache);
+
+        repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+        repository.getPomInfo(new Group("org.example"), new Artifact("b"), new Version("1"), null);
+        repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+
+        assertEquals(3, pomCache.misses());
+        assertEquals(0, pomCache.hits());
+        assertEquals(2, pomCache.evictions());
+        assertEquals(1, pomCache.size());
+    }
+
+    @Test
+    public void testDisabledCacheHoldsNothing() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        writePom(root, "org.example", "a", "1", "");
+
+        var pomCache = PomCache.disabled();
+        var repository = MavenRepository.local(root).withPomCache(pomCache);
+
+        repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+        repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+
+        assertEquals(2, pomCache.misses());
+        assertEquals(0, pomCache.size());
+    }
+
+    @Test
+    public void testMissingPomIsNotCached() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+
+        var pomCache = PomCache.bounded(16);
+        var repository = MavenRepository.local(root).withPomCache(pomCache);
+
+        assertThrows(
+                ArtifactNotFound.class,
+                () -> repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null)
+        );
+
+        writePom(root, "org.example", "a", "1", "");
+        var pomInfo = repository.getPomInfo(new Group("org.example"), new Artifact("a"), new Version("1"), null);
+        assertEquals(new Artifact("a"), pomInfo.artifactId().orElseThrow());
+    }
+
+    @Test
+    public void testImportedBomIsResolvedOnce() throws IOException {
+        var root = Files.createTempDirectory("resolve");
+        writePom(root, "org.example", "bom", "1", """
+                <dependencyManagement>
+                    <dependencies>
+                        <dependency>
+                            <groupId>org.example</groupId>
+                            <artifactId>x</artifactId>
+                            <version>3</version>
+                        </dependency>
+                    </dependencies>
+                </dependencyManagement>
+                """);
+        var importBom = """
+                <dependencyManagement>
+                    <dependencies>
+                        <dependency>
+                            <groupId>org.example</groupId>
+                            <artifactId>bom</artifactId>
+                            <version>1</version>
+                            <type>pom</type>
+                            <scope>import</scope>
+                        </dependency>
+                    </dependencies>
+                </dependencyManagement>
+                """;
+        writePom(root, "org.example", "a", "1", importBom);
+        writePom(root, "org.example", "b", "1", importBom);
+
+        var pomCache = PomCache.bounded(16);
+        var repository = MavenRepository.local(root).withPomCache(pomCache);
+        var jdkVersion = Runtime.Version.parse("21");
+        var os = new Os();
+
+        var a = EffectivePomInfo.from(
+                repository.getAllPoms(new Group("org.example"), new Artifact("a"), new Version("1"), null),
+                jdkVersion,
+                os
+        ).resolveImports(repository, null, jdkVersion, os);
+        var b = EffectivePomInfo.from(
+                repository.getAllPoms(new Group("org.example"), new Artifact("b"), new Version("1"), null),
+                jdkVersion,
+                os
+        ).resolveImports(repository, null, jdkVersion, os);
+
+        assertEquals(a.dependencyManagement(), b.dependencyManagement());
+        assertEquals(1, b.dependencyManagement().size());
+        assertEquals(new Artifact("x"), b.dependencyManagement().get(0).artifactId().orElseThrow());
+
+        // a, its chain, the bom, its chain and its flattened form; then b and its chain
+        assertEquals(7, pomCache.misses());
+        // The flattened bom for b
+        assertEquals(1, pomCache.hits());
+
+        EffectivePomInfo.from(
+                repository.getAllPoms(new Group("org.example"), new Artifact("a"), new Version("1"), null),
+                Runtime.Version.parse("17"),
+                os
+        ).resolveImports(repository, null, Runtime.Version.parse("17"), os);
+
+        // A different JDK version has to resolve the bom again, but not parse it
+        assertEquals(8, pomCache.misses());
+        assertEquals(3, pomCache.hits());
+    }
+}
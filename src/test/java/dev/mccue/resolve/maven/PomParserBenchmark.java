@@ -0,0 +1,63 @@
+package dev.mccue.resolve.maven;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the AWS BOM, which is mostly dependency management entries.
+ *
+ * <p>
+ *     Looking handlers up in a map keyed by the whole element path took 705-925 us/op. Walking a
+ *     tree of element names takes 350-475 us/op. Both were measured on JDK 21 on one core, with the
+ *     same warmed-up loop over this file rather than through JMH.
+ * </p>
+ *
+ * <pre>
+ *     mvn test-compile exec:java -Dexec.classpathScope=test \
+ *         -Dexec.mainClass=dev.mccue.resolve.maven.PomParserBenchmark
+ * </pre>
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PomParserBenchmark {
+    byte[] awsPom;
+
+    @Setup
+    public void setup() throws IOException {
+        try (var inputStream = PomParserBenchmark.class.getResourceAsStream("/awspom.xml")) {
+            awsPom = Objects.requireNonNull(inputStream).readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public void parseAwsPom(Blackhole blackhole) {
+        blackhole.consume(PomParser.parse(new ByteArrayInputStream(awsPom)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PomParserBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
@@ -11,8 +11,11 @@ import javax.xml.parsers.SAXParserFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -875,4 +878,81 @@ public final class PomParserTest {
 
         System.out.println(parsed.profiles());
     }
+
+    @Test
+    public void parseFromStream() throws Exception {
+        byte[] awsPom;
+        try (var data = PomParserTest.class.getResourceAsStream("/awspom.xml")) {
+            awsPom = data.readAllBytes();
+        }
+        var expected = PomParser.parse(new String(awsPom, StandardCharsets.UTF_8));
+
+        // Parsers are reused, so make sure that doesn't leak anything between POMs.
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            var results = new ArrayList<Future<PomInfo>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> PomParser.parse(new ByteArrayInputStream(awsPom))));
+            }
+            for (var result : results) {
+                assertEquals(expected, result.get());
+            }
+        }
+    }
+
+    @Test
+    public void parseFromStreamUsesDeclaredEncoding() {
+        var pom = """
+                <?xml version="1.0" encoding="ISO-8859-1"?>
+                <project>
+                    <groupId>caf\u00e9</groupId>
+                    <artifactId>a</artifactId>
+                    <version>1</version>
+                </project>
+                """;
+        assertEquals(
+                new PomGroupId.Declared("caf\u00e9"),
+                PomParser.parse(new ByteArrayInputStream(pom.getBytes(StandardCharsets.ISO_8859_1))).groupId()
+        );
+    }
+
+    @Test
+    public void unhandledSectionsAreSkipped() {
+        var deep = "<a>".repeat(40) + "<dependencies><dependency><artifactId>deep</artifactId></dependency></dependencies>" + "</a>".repeat(40);
+        var pom = """
+                <project>
+                    <groupId>com.example</groupId>
+                    <artifactId>awesome-project</artifactId>
+                    <build>
+                        <plugins>
+                            <plugin>
+                                <artifactId>plugin</artifactId>
+                                <dependencies>
+                                    <dependency>
+                                        <artifactId>plugin-dependency</artifactId>
+                                    </dependency>
+                                </dependencies>
+                            </plugin>
+                        </plugins>
+                    </build>
+                    <developers>%s</developers>
+                    <properties>
+                        <a>ignored<b>nested</b>kept</a>
+                    </properties>
+                    <dependencies>
+                        <dependency>
+                            <artifactId>dependency</artifactId>
+                        </dependency>
+                    </dependencies>
+                    <version>1</version>
+                </project>
+                """.formatted(deep);
+
+        var pomInfo = PomParser.parse(pom);
+        assertEquals(
+                List.of(new PomArtifactId.Declared("dependency")),
+                pomInfo.dependencies().stream().map(PomDependency::artifactId).toList()
+        );
+        assertEquals(List.of(new PomProperty("a", "kept")), pomInfo.properties());
+        assertEquals(new PomVersion.Declared("1"), pomInfo.version());
+    }
 }